@@ -1,18 +1,56 @@
+/*========== EdgeMatrix.java ==========
+  A growable list of points. Only x, y and z are stored, as
+  three separate rows (m[0], m[1], m[2]); w is always 1 and
+  isn't kept, so unlike a Matrix this is never 4x4 and isn't
+  one. Columns double when they run out (see grow), and the
+  add methods reserve the room they need up front with
+  ensureCapacity. Transforms are applied with matrixMult,
+  from a Matrix or a Mat4.
+
+  Used as a polygon matrix, triangles are kept in an index
+  buffer, three point columns per triangle, so a point shared
+  by several triangles is only there once. addPolygon adds
+  three new points and a triangle using them; addTriangle
+  reuses points already added.
+  =========================*/
+
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
-public class EdgeMatrix extends Matrix {
+public class EdgeMatrix {
     
+    public static final int ROWS = 3;
+    public static final int DEFAULT_SIZE = 4;
+    //how far, in pixels, curve edges may stray from the curve
+    public static final double CURVE_TOLERANCE = 0.25;
+    //most steps walked without splitting, most times split
+    private static final int CURVE_PIECE = 16;
+    private static final int CURVE_DEPTH = 16;
+    //points per parallel transform task, 96k of x, y and z
+    public static final int TRANSFORM_CHUNK = 4096;
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 65536;
+
+    private static volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    private double[][] m;
     private int lastCol;
+    private int[] indices;
+    private int numIndices;
+    /*set while indices is another matrix's (see setTransformed),
+      with this matrix's own array kept in spareIndices*/
+    private boolean sharedIndices;
+    private int[] spareIndices;
 
     public EdgeMatrix() {
-	super();
-	lastCol = 0;
+	this( DEFAULT_SIZE );
     }
 
     public EdgeMatrix( int c ) {
-	super( c );
+	m = new double[ROWS][c];
 	lastCol = 0;
+	indices = new int[ c ];
+	numIndices = 0;
     }
 
     /*======== public void addPolygon() ==========
@@ -39,6 +77,125 @@ public class EdgeMatrix extends Matrix {
 	addPoint( x0, y0, z0 );
 	addPoint( x1, y1, z1 );
 	addPoint( x2, y2, z2 );
+	addTriangle( lastCol - 3, lastCol - 2, lastCol - 1 );
+    }
+
+    /*======== public void addTriangle() ==========
+      Inputs:   int a
+                int b
+		int c
+      Returns: 
+      Adds a triangle made of the points already in columns
+      a, b and c to the index buffer. Points shared between
+      triangles are only stored (and transformed) once.
+      ====================*/
+    public void addTriangle( int a, int b, int c ) {
+
+	if ( sharedIndices || numIndices + 3 > indices.length )
+	    ensureIndexCapacity( numIndices + 3 );
+	indices[numIndices++] = a;
+	indices[numIndices++] = b;
+	indices[numIndices++] = c;
+    }
+
+    //room for at least n indices, at least doubling like ensureCapacity
+    public void ensureIndexCapacity( int n ) {
+	if ( sharedIndices ) {
+	    //copy the borrowed triangles into our own array first
+	    int[] own = spareIndices;
+	    if ( own.length < Math.max( n, numIndices ) )
+		own = new int[ Math.max( Math.max( n, numIndices ), 2 * own.length ) ];
+	    System.arraycopy( indices, 0, own, 0, numIndices );
+	    indices = own;
+	    spareIndices = null;
+	    sharedIndices = false;
+	}
+	if ( n > indices.length )
+	    indices = Arrays.copyOf( indices, Math.max( n, 2 * indices.length ) );
+    }
+
+    /*======== public void addMesh() ==========
+      Inputs:   EdgeMatrix mesh
+      Returns: 
+      Appends all the points and triangles of mesh, leaving
+      mesh as it was.
+      ====================*/
+    public void addMesh( EdgeMatrix mesh ) {
+
+	int base = lastCol;
+	ensureCapacity( lastCol + mesh.lastCol );
+	ensureIndexCapacity( numIndices + mesh.numIndices );
+	for ( int r = 0; r < ROWS; r++ )
+	    System.arraycopy( mesh.m[r], 0, m[r], base, mesh.lastCol );
+	lastCol += mesh.lastCol;
+	for ( int i = 0; i < mesh.numIndices; i++ )
+	    indices[ numIndices++ ] = mesh.indices[i] + base;
+    }
+
+    /*======== public long[] frontFaces() ==========
+      Inputs:   long[] mask
+      Returns:  A bitset with bit t set when triangle t faces
+                the viewer
+
+      Back face culling for the whole polygon matrix in one pass.
+      Looking down <0, 0, -1>, a triangle faces us exactly when
+      its signed area in x and y is negative, which is the sign
+      of calculateDot without the cross product, sqrt or divides.
+      mask is reused if it is big enough, otherwise a new one
+      is returned. With mirrored set the test is reversed, for
+      points moved by a transform with a negative determinant.
+      ====================*/
+    public long[] frontFaces( long[] mask ) {
+	return frontFaces( mask, false );
+    }
+
+    public long[] frontFaces( long[] mask, boolean mirrored ) {
+
+	int numTris = numIndices / 3;
+	int words = (numTris + 63) >> 6;
+	if ( mask == null || mask.length < words )
+	    mask = new long[ words ];
+	double[] xs = m[0];
+	double[] ys = m[1];
+
+	for ( int w = 0; w < words; w++ ) {
+	    long bits = 0;
+	    int end = Math.min( 64, numTris - (w << 6) );
+	    for ( int b = 0, i = (w << 6) * 3; b < end; b++, i += 3 ) {
+		int p0 = indices[i], p1 = indices[i+1], p2 = indices[i+2];
+		double area = (xs[p1] - xs[p0]) * (ys[p2] - ys[p0]) -
+		    (ys[p1] - ys[p0]) * (xs[p2] - xs[p0]);
+		if ( mirrored ? area > 0 : area < 0 )
+		    bits |= 1L << b;
+	    }
+	    mask[w] = bits;
+	}
+	return mask;
+    }
+
+    /*======== public void getBounds() ==========
+      Inputs:   double[] b
+      Returns:  
+
+      Fills b with the axis aligned bounding box of the
+      points in the matrix: minx, miny, minz, maxx, maxy, maxz
+      ====================*/
+    public void getBounds( double[] b ) {
+
+	b[0] = b[1] = b[2] = Double.POSITIVE_INFINITY;
+	b[3] = b[4] = b[5] = Double.NEGATIVE_INFINITY;
+	for ( int r = 0; r < 3; r++ ) {
+	    double[] row = m[r];
+	    double lo = b[r], hi = b[r+3];
+	    for ( int c = 0; c < lastCol; c++ ) {
+		if ( row[c] < lo )
+		    lo = row[c];
+		if ( row[c] > hi )
+		    hi = row[c];
+	    }
+	    b[r] = lo;
+	    b[r+3] = hi;
+	}
     }
 
     /*======== public void addBox() ==========
@@ -62,6 +219,8 @@ public class EdgeMatrix extends Matrix {
 
 	double x2, y2, z2;
 	
+	ensureCapacity( lastCol + 36 );
+	ensureIndexCapacity( numIndices + 36 );
 	x2 = x + width;
 	y2 = y + height;
 	z2 = z - depth;
@@ -127,12 +286,14 @@ public class EdgeMatrix extends Matrix {
       jonalf
       ====================*/
     public void addSphere( double cx, double cy, double cz, double r ) {
+	addSphere( cx, cy, cz, r, 0.05 );
+    }
+
+    public void addSphere( double cx, double cy, double cz, double r,
+			   double step ) {
 
-	double step = 0.05;
-	EdgeMatrix points = new EdgeMatrix();
-	double x, y, z;
 	int index;
-	int numSteps = (int)(1 / step);
+	int numSteps = segments( step );
 	int longStart, latStart, longStop, latStop;
 	numSteps++;
 	longStart = 0;
@@ -140,55 +301,25 @@ public class EdgeMatrix extends Matrix {
 	longStop = numSteps-1;
 	latStop = numSteps-1;
 
-	points.generateSphere( cx, cy, cz, r, step );
+	//numSteps-1 slices of 2 triangles per step, less the last
+	int base = lastCol;
+	ensureCapacity( lastCol + (numSteps - 1) * numSteps );
+	ensureIndexCapacity( numIndices + 3 * latStop * (2 * longStop - 1) );
+	generateSphere( cx, cy, cz, r, step );
 	for ( int lat = latStart; lat < latStop; lat++ ) {
 	    for ( int longt = longStart; longt < longStop; longt++ ) {
 
-		index = lat * (numSteps) + longt;
+		index = base + lat * (numSteps) + longt;
 
 		if ( lat == numSteps - 2 ) {
-		    addPolygon( points.getX( index ),
-				points.getY( index ),
-				points.getZ( index ),
-				points.getX( longt ),
-				points.getY( longt ),
-				points.getZ( longt ),
-				points.getX( longt+1 ),
-				points.getY( longt+1 ),
-				points.getZ( longt+1 ));
-		    if ( longt != numSteps - 2 ) {
-			addPolygon( points.getX( longt+1 ),
-				    points.getY( longt+1 ),
-				    points.getZ( longt+1 ),
-				    points.getX( index+1 ),
-				    points.getY( index+1 ),
-				    points.getZ( index+1 ),
-				    points.getX( index ),
-				    points.getY( index ),
-				    points.getZ( index ));
-		    }
+		    addTriangle( index, base + longt, base + longt+1 );
+		    if ( longt != numSteps - 2 )
+			addTriangle( base + longt+1, index+1, index );
 		}
 		else {
-		    addPolygon( points.getX( index ),
-				points.getY( index ),
-				points.getZ( index ),
-				points.getX( index+numSteps ),
-				points.getY( index+numSteps ),
-				points.getZ( index+numSteps ),
-				points.getX( index+numSteps+1 ),
-				points.getY( index+numSteps+1 ),
-				points.getZ( index+numSteps+1 ));
-		    if ( longt != numSteps - 2 ) {
-			addPolygon( points.getX( index+numSteps+1 ),
-				    points.getY( index+numSteps+1 ),
-				    points.getZ( index+numSteps+1 ),
-				    points.getX( index+1 ),
-				    points.getY( index+1 ),
-				    points.getZ( index+1 ),
-				    points.getX( index ),
-				    points.getY( index ),
-				    points.getZ( index ));
-		    }
+		    addTriangle( index, index+numSteps, index+numSteps+1 );
+		    if ( longt != numSteps - 2 )
+			addTriangle( index+numSteps+1, index+1, index );
 		}
 	    }
 	}
@@ -212,21 +343,60 @@ public class EdgeMatrix extends Matrix {
       ====================*/
     public void generateSphere( double cx, double cy, double cz,
 				double r, double step ) {
-	
-	double x, y, z;
 
-	for ( double rotation = 0; rotation <= 1; rotation+= step ) {
-	    for ( double circle = 0; circle <= 1.01; circle+= step ) {
+	//numSteps semicircles of numSteps+1 points each
+	int numSteps = segments( step );
+	double[] cosCircle = new double[ numSteps + 1 ];
+	double[] sinCircle = new double[ numSteps + 1 ];
+	double[] cosRot = new double[ numSteps + 1 ];
+	double[] sinRot = new double[ numSteps + 1 ];
+	circleTable( numSteps, Math.PI, cosCircle, sinCircle );
+	circleTable( numSteps, 2 * Math.PI, cosRot, sinRot );
+
+	int c = lastCol;
+	ensureCapacity( lastCol + numSteps * (numSteps + 1) );
+	double[] xs = m[0], ys = m[1], zs = m[2];
+	for ( int rotation = 0; rotation < numSteps; rotation++ ) {
+	    for ( int circle = 0; circle <= numSteps; circle++, c++ ) {
 		
 		//x rotation		
-		x = r * Math.cos( Math.PI * circle ) + cx;
-		y = r * Math.sin( Math.PI * circle ) * 
-		    Math.cos( 2 * Math.PI * rotation ) + cy;
-		z = r * Math.sin( Math.PI * circle ) * 
-		    Math.sin( 2 * Math.PI * rotation ) + cz;
-		addPoint(x, y, z);
+		double ring = r * sinCircle[circle];
+		xs[c] = r * cosCircle[circle] + cx;
+		ys[c] = ring * cosRot[rotation] + cy;
+		zs[c] = ring * sinRot[rotation] + cz;
 	    }
 	}
+	lastCol = c;
+    }
+
+    /*======== private static void circleTable() ==========
+      Inputs:   int n
+                double turn
+		double[] cos
+		double[] sin
+      Returns: 
+      Fills cos[k] and sin[k] for the angles turn * k / n,
+      k = 0 .. n, by turning (1, 0) one step at a time, so
+      there are only two trig calls however big n is.
+      ====================*/
+    private static void circleTable( int n, double turn,
+				     double[] cos, double[] sin ) {
+
+	double cs = Math.cos( turn / n );
+	double sn = Math.sin( turn / n );
+	double c = 1, s = 0;
+	for ( int k = 0; k <= n; k++ ) {
+	    cos[k] = c;
+	    sin[k] = s;
+	    double t = c * cs - s * sn;
+	    s = s * cs + c * sn;
+	    c = t;
+	}
+    }
+
+    //the number of steps of size step in one turn
+    private static int segments( double step ) {
+	return Math.max( 1, (int)Math.round( 1 / step ) );
     }
 
     /*======== public void addTorus() ==========
@@ -248,78 +418,46 @@ public class EdgeMatrix extends Matrix {
       ====================*/
     public void addTorus( double cx, double cy, double cz,
 			  double r1, double r2 ) {
-	double step = 0.05;
-	EdgeMatrix points = new EdgeMatrix();
+	addTorus( cx, cy, cz, r1, r2, 0.05 );
+    }
+
+    public void addTorus( double cx, double cy, double cz,
+			  double r1, double r2, double step ) {
 	
 	int index;
-	int numSteps = (int)(1 / step);
+	int numSteps = segments( step );
 	int longStart, latStart, longStop, latStop;
 	longStart = 0;
 	latStart = 0;
 	longStop = numSteps;
 	latStop = numSteps;
 
-	points.generateTorus( cx, cy, cz, r1, r2, step );
-	int numPoints = points.getLastCol();
+	int base = lastCol;
+	ensureCapacity( lastCol + numSteps * numSteps );
+	ensureIndexCapacity( numIndices + 3 * 2 * latStop * longStop );
+	generateTorus( cx, cy, cz, r1, r2, step );
+	int numPoints = lastCol - base;
 		
-	//points only
 	for ( int lat = latStart; lat < latStop; lat++ )  {
 	    for ( int longt = longStart; longt < longStop; longt++ ) {
 
 		index = lat * numSteps + longt;
 		
 		if ( longt != numSteps-1 && numPoints != 0 ) {
-		    addPolygon( points.getX( index ),
-				points.getY( index ),
-				points.getZ( index ),
-				points.getX( (index+numSteps+1) % 
-					     numPoints ),
-				points.getY( (index+numSteps+1) %
-					     numPoints),
-				points.getZ( (index+numSteps+1) %
-					     numPoints),
-				points.getX( index+1 ),
-				points.getY( index+1 ),
-				points.getZ( index+1 )); 
-		    addPolygon( points.getX( index ),
-				points.getY( index ),
-				points.getZ( index ),
-				points.getX( (index+numSteps) % 
-					     numPoints ),
-				points.getY( (index+numSteps) %
-					     numPoints),
-				points.getZ( (index+numSteps) %
-					     numPoints),
-				points.getX( (index+numSteps) %
-					     numPoints + 1),
-				points.getY( (index+numSteps) %
-					     numPoints + 1),
-				points.getZ( (index+numSteps) %
-					     numPoints + 1)); 
+		    addTriangle( base + index,
+				 base + (index+numSteps+1) % numPoints,
+				 base + index+1 );
+		    addTriangle( base + index,
+				 base + (index+numSteps) % numPoints,
+				 base + (index+numSteps) % numPoints + 1 );
 		}//end non edge case
 		else if ( numPoints != 0 ) {
-		    addPolygon( points.getX( index ),
-				points.getY( index ),
-				points.getZ( index ),
-				points.getX( (index+1) % numPoints),
-				points.getY( (index+1) % numPoints),
-				points.getZ( (index+1) % numPoints),
-				points.getX( index+1-numSteps),
-				points.getY( index+1-numSteps),
-				points.getZ( index+1-numSteps));
-		    addPolygon( points.getX( index ),
-				points.getY( index ),
-				points.getZ( index ),
-				points.getX( (index+numSteps) % 
-					     numPoints ),
-				points.getY( (index+numSteps) %
-					     numPoints),
-				points.getZ( (index+numSteps) %
-					     numPoints),
-				points.getX( (index+1) % numPoints),
-				points.getY( (index+1) % numPoints),
-				points.getZ( (index+1) % numPoints));
-
+		    addTriangle( base + index,
+				 base + (index+1) % numPoints,
+				 base + index+1-numSteps );
+		    addTriangle( base + index,
+				 base + (index+numSteps) % numPoints,
+				 base + (index+1) % numPoints );
 		}//end edge case
 	    }//end for longt
 	}//end for lat
@@ -343,27 +481,30 @@ public class EdgeMatrix extends Matrix {
       ====================*/
     public void generateTorus( double cx, double cy, double cz,
 			       double r1, double r2, double step ) {
-	double x, y, z;
 
-	for ( double rotation = 0; rotation <= 1; rotation+= step )
-	    for ( double circle = 0; circle <= 1; circle+= step ) {
+	//numSteps rings of numSteps points each
+	int numSteps = segments( step );
+	double[] cosCircle = new double[ numSteps + 1 ];
+	double[] sinCircle = new double[ numSteps + 1 ];
+	double[] cosRot = new double[ numSteps + 1 ];
+	double[] sinRot = new double[ numSteps + 1 ];
+	circleTable( numSteps, 2 * Math.PI, cosCircle, sinCircle );
+	circleTable( numSteps, 2 * Math.PI, cosRot, sinRot );
+
+	int c = lastCol;
+	ensureCapacity( lastCol + numSteps * numSteps );
+	double[] xs = m[0], ys = m[1], zs = m[2];
+	for ( int rotation = 0; rotation < numSteps; rotation++ ) {
+	    for ( int circle = 0; circle < numSteps; circle++, c++ ) {
 
 		//y rotation
-		x = Math.cos( 2 * Math.PI * rotation ) *
-		    ( r1 * Math.cos( 2 * Math.PI * circle ) + r2 ) + cx;
-		y = r1 * Math.sin( 2 * Math.PI * circle ) + cy;
-		z = Math.sin( 2 * Math.PI * rotation ) *
-		    ( r1 * Math.cos( 2 * Math.PI * circle ) + r2 ) + cz;
-		/*
-		  // x rotation
-		x = r1 * Math.cos( 2 * Math.PI * circle ) + cx;
-		y = Math.cos( 2 * Math.PI * rotation ) * 
-		    ( r1 * Math.sin( 2 * Math.PI * circle ) + r2 ) + cy;
-		z = Math.sin( 2 * Math.PI * rotation ) *
-		    ( r1 * Math.sin( 2 * Math.PI * circle ) + r2 );
-		*/
-		addPoint(x, y, z);
-	    }	
+		double ring = r1 * cosCircle[circle] + r2;
+		xs[c] = cosRot[rotation] * ring + cx;
+		ys[c] = r1 * sinCircle[circle] + cy;
+		zs[c] = sinRot[rotation] * ring + cz;
+	    }
+	}
+	lastCol = c;
     }
 
     /*======== public static double distance() ==========
@@ -428,11 +569,17 @@ public class EdgeMatrix extends Matrix {
 		int y2
 		int x3
 		int y3 
+		int type
       Returns: 
       
       Generates the edges required to create a curve
       and adds them to the edge matrix
 
+      type 0 is a Hermite curve from (x0, y0) to (x2, y2)
+      with tangents (x1 - x0, y1 - y0) and (x3 - x2, y3 - y2),
+      anything else a Bezier curve with those 4 control points.
+      The edges stay within CURVE_TOLERANCE of the curve.
+
       03/09/12 18:00:06
       jonalf
       ====================*/
@@ -440,48 +587,136 @@ public class EdgeMatrix extends Matrix {
 			  double x1, double y1, 
 			  double x2, double y2, 
 			  double x3, double y3, int type ) {
-	
-	EdgeMatrix xcoefs = new EdgeMatrix(1);
-	EdgeMatrix ycoefs = new EdgeMatrix(1);
+	addCurve( x0, y0, x1, y1, x2, y2, x3, y3, type, CURVE_TOLERANCE );
+    }
 
-	//a lower step value makes a more precise curve
-	double step = 0.01;
+    public void addCurve( double x0, double y0, 
+			  double x1, double y1, 
+			  double x2, double y2, 
+			  double x3, double y3, int type,
+			  double tolerance ) {
+
+	if ( !(tolerance > 0) )
+	    tolerance = CURVE_TOLERANCE;
+
+	//a Hermite curve is the Bezier curve with the middle
+	//control points a third of each tangent in
+	if ( type == 0 )
+	    subdivide( x0, y0,
+		       x0 + (x1 - x0) / 3, y0 + (y1 - y0) / 3,
+		       x2 - (x3 - x2) / 3, y2 - (y3 - y2) / 3,
+		       x2, y2, tolerance, 0 );
+	else
+	    subdivide( x0, y0, x1, y1, x2, y2, x3, y3, tolerance, 0 );
+    }
 
-	double x, y, z, ax, ay, bx, by, cx, cy, dx, dy;
-	
-	if ( type == 0 ) {
-	    xcoefs.generateHermiteCoefs(x0, x1, x2, x3);
-	    ycoefs.generateHermiteCoefs(y0, y1, y2, y3);
-	}
-	else {
-	    xcoefs.generateBezierCoefs(x0, x1, x2, x3);
-	    ycoefs.generateBezierCoefs(y0, y1, y2, y3);
-	}
+    /*======== private void subdivide() ==========
+      Inputs:   double x0 .. y3
+                double tolerance
+		int depth
+      Returns: 
 
-	ax = xcoefs.getX(0);
-	bx = xcoefs.getY(0);
-	cx = xcoefs.getZ(0);
-	dx = xcoefs.getD(0);
+      Adds edges along the Bezier curve with control points
+      (x0, y0) .. (x3, y3), no more than tolerance away from it.
 
-	ay = ycoefs.getX(0);
-	by = ycoefs.getY(0);
-	cy = ycoefs.getZ(0);
-	dy = ycoefs.getD(0);
+      By Wang's formula, n equal steps in t keep every edge
+      within tolerance of a cubic once
+      n >= sqrt( 3/4 * M / tolerance ), where M is the bigger
+      of |P0 - 2P1 + P2| and |P1 - 2P2 + P3|. If n is small
+      the curve is walked with forward differences, otherwise
+      it is split in half (de Casteljau) so the flat parts of
+      a curve don't get the steps its sharp bends need.
+      ====================*/
+    private void subdivide( double x0, double y0, double x1, double y1,
+			    double x2, double y2, double x3, double y3,
+			    double tolerance, int depth ) {
+
+	double ax = x0 - 2 * x1 + x2, ay = y0 - 2 * y1 + y2;
+	double bx = x1 - 2 * x2 + x3, by = y1 - 2 * y2 + y3;
+	double bend = Math.sqrt( Math.max( ax * ax + ay * ay, bx * bx + by * by ) );
+	int n = (int)Math.ceil( Math.sqrt( 0.75 * bend / tolerance ) );
+
+	if ( n <= CURVE_PIECE || depth == CURVE_DEPTH ) {
+	    forwardDifference( x0, y0, x1, y1, x2, y2, x3, y3,
+			       Math.max( 1, Math.min( n, CURVE_PIECE ) ) );
+	    return;
+	}
 
-	double startx = x0;
-	double starty = y0;
+	double x01 = (x0 + x1) / 2, y01 = (y0 + y1) / 2;
+	double x12 = (x1 + x2) / 2, y12 = (y1 + y2) / 2;
+	double x23 = (x2 + x3) / 2, y23 = (y2 + y3) / 2;
+	double xa = (x01 + x12) / 2, ya = (y01 + y12) / 2;
+	double xb = (x12 + x23) / 2, yb = (y12 + y23) / 2;
+	double xm = (xa + xb) / 2, ym = (ya + yb) / 2;
+	subdivide( x0, y0, x01, y01, xa, ya, xm, ym, tolerance, depth + 1 );
+	subdivide( xm, ym, xb, yb, x23, y23, x3, y3, tolerance, depth + 1 );
+    }
 
-	for (double t = step; t <= 1; t+= step ) {
-	    
-	    x = ax * t * t * t + bx * t * t + cx * t + dx;
-	    y = ay * t * t * t + by * t * t + cy * t + dy;
+    /*======== private void forwardDifference() ==========
+      Inputs:   double x0 .. y3
+                int n
+      Returns: 
 
-	    addEdge( startx, starty, 0, x, y, 0 );
-	    startx = x;
-	    starty = y;
+      Adds n edges along the Bezier curve with control points
+      (x0, y0) .. (x3, y3), at equal steps h in t. With the
+      curve as a t^3 + b t^2 + c t + d, each point is the
+      last one plus the first difference, which in turn grows
+      by the second and third differences, so a step costs
+      only adds.
+      ====================*/
+    private void forwardDifference( double x0, double y0, double x1, double y1,
+				    double x2, double y2, double x3, double y3,
+				    int n ) {
+
+	double h = 1.0 / n;
+	double h2 = h * h, h3 = h2 * h;
+
+	double ax = -x0 + 3 * x1 - 3 * x2 + x3, ay = -y0 + 3 * y1 - 3 * y2 + y3;
+	double bx = 3 * x0 - 6 * x1 + 3 * x2, by = 3 * y0 - 6 * y1 + 3 * y2;
+	double cx = 3 * (x1 - x0), cy = 3 * (y1 - y0);
+
+	double dx1 = ax * h3 + bx * h2 + cx * h, dy1 = ay * h3 + by * h2 + cy * h;
+	double dx2 = 6 * ax * h3 + 2 * bx * h2, dy2 = 6 * ay * h3 + 2 * by * h2;
+	double dx3 = 6 * ax * h3, dy3 = 6 * ay * h3;
+
+	double x = x0, y = y0;
+	for ( int i = 1; i < n; i++ ) {
+	    double nx = x + dx1, ny = y + dy1;
+	    addEdge( x, y, 0, nx, ny, 0 );
+	    x = nx;
+	    y = ny;
+	    dx1 += dx2;
+	    dy1 += dy2;
+	    dx2 += dx3;
+	    dy2 += dy3;
 	}
+	//end exactly on the last control point
+	addEdge( x, y, 0, x3, y3, 0 );
     }
 	    
+    /*======== public void grow() ==========
+      Doubles the number of columns (adding at least 10), so
+      filling the matrix one point at a time only copies each
+      point a constant number of times
+      ====================*/
+    public void grow() {
+	ensureCapacity( m[0].length + Math.max( 10, m[0].length ) );
+    }
+
+    /*======== public void ensureCapacity() ==========
+      Makes sure there is room for at least c points. When it
+      has to grow it at least doubles, so reserving room a
+      shape at a time stays linear overall
+      ====================*/
+    public void ensureCapacity( int c ) {
+
+	if ( c <= m[0].length )
+	    return;
+	c = Math.max( c, 2 * m[0].length );
+	for (int r=0; r<ROWS; r++)
+	    m[r] = Arrays.copyOf( m[r], c );
+    }
+
     /*======== public void addPoint() ==========
       Inputs:  int x
                int y
@@ -499,7 +734,6 @@ public class EdgeMatrix extends Matrix {
 	m[0][lastCol] = x;
 	m[1][lastCol] = y;
 	m[2][lastCol] = z;
-	m[3][lastCol] = 1;
 	lastCol++;
     }
 
@@ -524,6 +758,143 @@ public class EdgeMatrix extends Matrix {
 
 
 
+    /*======== public void matrixMult() ==========
+      Inputs:  Matrix n
+      Returns: 
+      Moves every point (x, y, z, 1) in use by n. When n is
+      affine (bottom row 0 0 0 1, true of every translate,
+      scale and rotate) this goes through the transform kernel
+      (see Kernels). Otherwise the result is divided by its w
+      to get back to a point. A Mat4 is always affine.
+      ====================*/
+    public void matrixMult( Matrix n ) {
+
+	double[][] t = n.m;
+	if ( t[3][0] != 0 || t[3][1] != 0 || t[3][2] != 0 || t[3][3] != 1 ) {
+	    for ( int c = 0; c < lastCol; c++ ) {
+		double x = m[0][c], y = m[1][c], z = m[2][c];
+		double w = t[3][0] * x + t[3][1] * y + t[3][2] * z + t[3][3];
+		m[0][c] = (t[0][0] * x + t[0][1] * y + t[0][2] * z + t[0][3]) / w;
+		m[1][c] = (t[1][0] * x + t[1][1] * y + t[1][2] * z + t[1][3]) / w;
+		m[2][c] = (t[2][0] * x + t[2][1] * y + t[2][2] * z + t[2][3]) / w;
+	    }
+	    return;
+	}
+	transform( t[0][0], t[0][1], t[0][2], t[0][3],
+		   t[1][0], t[1][1], t[1][2], t[1][3],
+		   t[2][0], t[2][1], t[2][2], t[2][3], this );
+    }
+
+    public void matrixMult( Mat4 n ) {
+	transform( n.m00, n.m01, n.m02, n.m03,
+		   n.m10, n.m11, n.m12, n.m13,
+		   n.m20, n.m21, n.m22, n.m23, this );
+    }
+
+    /*======== public void setTransformed() ==========
+      Inputs:  EdgeMatrix src
+               Mat4 n
+      Returns: 
+      Makes this matrix src's points moved by n, with src's
+      triangles, leaving src as it was. The points go straight
+      from src into this matrix's rows, and the triangles
+      aren't copied at all: src's index buffer is borrowed
+      until this matrix adds triangles of its own or is
+      cleared, so src must not change meanwhile. For drawing
+      a cached mesh every frame.
+      ====================*/
+    public void setTransformed( EdgeMatrix src, Mat4 n ) {
+
+	clear();
+	ensureCapacity( src.lastCol );
+	lastCol = src.lastCol;
+	transform( n.m00, n.m01, n.m02, n.m03,
+		   n.m10, n.m11, n.m12, n.m13,
+		   n.m20, n.m21, n.m22, n.m23, src );
+	spareIndices = indices;
+	indices = src.indices;
+	numIndices = src.numIndices;
+	sharedIndices = true;
+    }
+
+    /*======== private void transform() ==========
+      Inputs:  the top 3 rows of an affine transform
+      Returns: 
+      Sets every point to the same column of src moved by the
+      transform (src may be this). Once there
+      are at least parallelThreshold points they are split
+      into TRANSFORM_CHUNK sized runs, small enough for the
+      three rows of a run to stay in cache, which are done on
+      the common ForkJoinPool (if it has more than one thread).
+      Each point only depends on itself, so the result is the
+      same either way.
+      ====================*/
+    private void transform( double m00, double m01, double m02, double m03,
+			    double m10, double m11, double m12, double m13,
+			    double m20, double m21, double m22, double m23,
+			    EdgeMatrix src ) {
+
+	if ( lastCol < parallelThreshold || lastCol <= TRANSFORM_CHUNK ||
+	     ForkJoinPool.getCommonPoolParallelism() < 2 ) {
+	    Kernels.get().transform( m00, m01, m02, m03,
+				     m10, m11, m12, m13,
+				     m20, m21, m22, m23,
+				     src.m[0], src.m[1], src.m[2],
+				     m[0], m[1], m[2], 0, lastCol );
+	    return;
+	}
+	double[] t = { m00, m01, m02, m03, m10, m11, m12, m13,
+		       m20, m21, m22, m23 };
+	ForkJoinPool.commonPool().invoke( new TransformTask( t, src, 0, lastCol ) );
+    }
+
+    private class TransformTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	private double[] t;
+	private EdgeMatrix src;
+	private int lo, hi;
+
+	TransformTask(double[] t, EdgeMatrix src, int lo, int hi) {
+	    this.t = t;
+	    this.src = src;
+	    this.lo = lo;
+	    this.hi = hi;
+	}
+
+	protected void compute() {
+	    if ( hi - lo <= TRANSFORM_CHUNK )
+		Kernels.get().transform( t[0], t[1], t[2], t[3],
+					 t[4], t[5], t[6], t[7],
+					 t[8], t[9], t[10], t[11],
+					 src.m[0], src.m[1], src.m[2],
+					 m[0], m[1], m[2], lo, hi );
+	    else {
+		//split on a chunk boundary
+		int mid = lo + ((hi - lo) / TRANSFORM_CHUNK / 2) * TRANSFORM_CHUNK;
+		if ( mid == lo )
+		    mid += TRANSFORM_CHUNK;
+		invokeAll( new TransformTask( t, src, lo, mid ),
+			   new TransformTask( t, src, mid, hi ) );
+	    }
+	}
+    }
+
+    /*======== public static void setParallelThreshold() ==========
+      Inputs:  int points
+      Returns: 
+      Sets how many points a matrix needs before matrixMult
+      splits the work across threads
+      ====================*/
+    public static void setParallelThreshold( int points ) {
+	parallelThreshold = points;
+    }
+
+    public static int getParallelThreshold() {
+	return parallelThreshold;
+    }
+
     /*======== accessors ==========
       ====================*/
     public int getLastCol() {
@@ -539,21 +910,54 @@ public class EdgeMatrix extends Matrix {
 	return m[2][c];
     }
     public double getD(int c) {
-	return m[3][c];
+	return 1;
+    }
+    //roughly how much memory the points and triangles take
+    public long getBytes() {
+	return 8L * ROWS * m[0].length + 4L * indices.length;
+    }
+    public int getTriangleCount() {
+	return numIndices / 3;
+    }
+    /*returns the column of point k (0, 1 or 2) of triangle t*/
+    public int getIndex(int t, int k) {
+	return indices[ 3 * t + k ];
     }
 
+    /*======== public void clear() ==========
+      Empties the matrix, keeping its capacity. Old values
+      are left in place since nothing past lastCol is read.
+      ====================*/
     public void clear() {
-	super.clear();
 	lastCol = 0;
+	numIndices = 0;
+	if ( sharedIndices ) {
+	    indices = spareIndices;
+	    spareIndices = null;
+	    sharedIndices = false;
+	}
     }
    
+    //the points in use, one row per coordinate
+    public String toString() {
+
+	String s = "";
+	for (int r=0; r<ROWS; r++) {
+	    for (int c=0; c<lastCol; c++)
+		s = s + m[r][c] + " ";
+	    s = s + "\n";
+	}
+	return s;
+    }
+
     public EdgeMatrix copy() {
 	
-	EdgeMatrix n = new EdgeMatrix( m[0].length );
+	EdgeMatrix n = new EdgeMatrix( Math.max( lastCol, 1 ) );
 	for (int r=0; r<m.length; r++)
-	    for (int c=0; c<m[r].length; c++)
-		n.m[r][c] = m[r][c];
+	    System.arraycopy( m[r], 0, n.m[r], 0, lastCol );
 	n.lastCol = lastCol;
+	n.indices = Arrays.copyOf( indices, Math.max( numIndices, 1 ) );
+	n.numIndices = numIndices;
 	return n;
     }
 
@@ -1,11 +1,13 @@
 /*========== Frame.java ==========
   Wrapper class for java's built in BufferedImage class.
-  Allows use of java's DrawLine and image saving methods
+  Pixels are written straight into the image's backing int[],
+  java is only used for saving.
 
   =========================*/
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.*;
@@ -17,128 +19,789 @@ public class Frame {
     public static final int YRES = 500;
     public static final int COLOR_VALUE = 255;
 
+    //tiles are squares of TILE_SIZE pixels, each one is only ever
+    //touched by a single thread while drawPolygons runs
+    public static final int TILE_SIZE = 64;
+    //below this many (triangle, tile) pairs it's not worth forking
+    public static final int PARALLEL_THRESHOLD = 256;
+
+    //polygon fill algorithms, see setRasterMode
+    public static final int RASTER_SCANLINE = 0;
+    public static final int RASTER_HALFSPACE = 1;
+
+    //per triangle setup values: three vertices (x, y, z)
+    private static final int SETUP_SIZE = 9;
+    //half-space vertices are snapped to 1/SUBPIXELS of a pixel,
+    //three (x, y) pairs per triangle
+    private static final int SUBPIXEL_BITS = 4;
+    private static final int SUBPIXELS = 1 << SUBPIXEL_BITS;
+    private static final int FIXED_SIZE = 6;
+    //triangles reaching further than this many pixels off screen
+    //get clipped before setup
+    public static final int GUARD_BAND = 8192;
+
     private int maxx, maxy, maxcolor;
-    private double[][] zbuffer;
+    private float[] zbuffer;
     private BufferedImage bi;
+    private int[] pixels;
+
+    private int tilesX, tilesY;
+    private int[][] bins;
+    private int[] binCount;
+    private int[] activeTiles;
+    private int numActive;
+    private double[] setup;
+    private int[] fixed;
+    private int[] triColor;
+    private int numSetup;
+    private long[] visible;
+    private double[] bounds;
+    private double[] vert;
+    private double[] clip, clipTmp;
+    private int shapesClipped, trianglesClipped;
+    private HiZBuffer hiz;
+    private Kernels kernels;
+    private int shapesOccluded, trianglesOccluded;
+    private Random rand;
+    private boolean parallel;
+    private boolean indexed;
+    private int rasterMode;
 
 
     public Frame() {
-	maxx = XRES;
-	maxy = YRES;
+	this( XRES, YRES );
+    }
+
+    public Frame(int xres, int yres) {
+	maxx = xres;
+	maxy = yres;
 	maxcolor = COLOR_VALUE;
-	zbuffer = new double[XRES][YRES];
-	for(int i=0;i<XRES;i++){  for(int j=0;j<YRES;j++) 
-		zbuffer[i][j]= -Double.MAX_VALUE;
-	}
-	bi = new BufferedImage(maxx,maxy,BufferedImage.TYPE_BYTE_INDEXED);
+	zbuffer = new float[maxx * maxy];
+	bi = new BufferedImage(maxx,maxy,BufferedImage.TYPE_INT_RGB);
+	pixels = ((DataBufferInt)bi.getRaster().getDataBuffer()).getData();
+	hiz = new HiZBuffer( zbuffer, maxx, maxy, TILE_SIZE );
+	kernels = Kernels.get();
+	clearZbuffer();
+
+	tilesX = (maxx + TILE_SIZE - 1) / TILE_SIZE;
+	tilesY = (maxy + TILE_SIZE - 1) / TILE_SIZE;
+	bins = new int[tilesX * tilesY][16];
+	binCount = new int[tilesX * tilesY];
+	activeTiles = new int[tilesX * tilesY];
+	setup = new double[SETUP_SIZE * 64];
+	fixed = new int[FIXED_SIZE * 64];
+	triColor = new int[64];
+	bounds = new double[6];
+	vert = new double[9];
+	//a triangle clipped by 4 lines has at most 7 vertices
+	clip = new double[3 * 7];
+	clipTmp = new double[3 * 7];
+	rand = new Random();
+	parallel = true;
+	rasterMode = RASTER_HALFSPACE;
+    }
+
+    public int getXres() {
+	return maxx;
+    }
+    public int getYres() {
+	return maxy;
+    }
+
+    /*======== public void setParallel() ==========
+      Inputs:  boolean p
+      Returns: 
+      Turns the multi-threaded tile rasterizer on or off.
+      Output is the same either way.
+      ====================*/
+    public void setParallel(boolean p) {
+	parallel = p;
+    }
+
+    /*======== public void setRasterMode() ==========
+      Inputs:  int mode
+      Returns: 
+      Picks how drawPolygons fills triangles:
+        RASTER_HALFSPACE (default): edge functions over the
+	  bounding box, top-left fill rule, depth interpolated
+	  across the plane of the triangle. Watertight.
+	RASTER_SCANLINE: the original bot/mid/top scanline
+	  conversion, edges drawn in the polygon color first.
+      Kept side by side so the two can be compared.
+      ====================*/
+    public void setRasterMode(int mode) {
+	rasterMode = mode;
+    }
+
+    public int getRasterMode() {
+	return rasterMode;
+    }
+
+    /*======== public void clear() ==========
+      Inputs:  
+      Returns: 
+      Resets both the screen and the z-buffer so the same
+      Frame can be reused for the next animation frame
+      ====================*/
+    public void clear() {
+	clearScreen();
+	clearZbuffer();
     }
 
     public void clearScreen() {
-	bi = new BufferedImage(maxx,maxy,BufferedImage.TYPE_BYTE_INDEXED);
+	Arrays.fill( pixels, 0 );
     }	
 
+    public void clearZbuffer() {
+	Arrays.fill( zbuffer, -Float.MAX_VALUE );
+	hiz.clear();
+    }
+
+    /*======== public boolean isHidden() ==========
+      Inputs:  double[] b
+      Returns: true if nothing inside the screen space bounding
+               box b (minx, miny, minz, maxx, maxy, maxz) could
+	       end up on screen
+
+      Lets a whole shape be skipped before it is generated:
+      either the box is off screen or everything under it is
+      already closer than its front (see HiZBuffer).
+      ====================*/
+    public boolean isHidden(double[] b) {
+
+	if ( b[3] < -1 || b[0] > maxx || b[4] < -1 || b[1] > maxy ) {
+	    shapesClipped++;
+	    return true;
+	}
+	int x0 = Math.max( (int)Math.floor(b[0]) - 1, 0 );
+	int x1 = Math.min( (int)Math.ceil(b[3]) + 1, maxx - 1 );
+	int y0 = Math.max( (int)Math.floor(b[1]) - 1, 0 );
+	int y1 = Math.min( (int)Math.ceil(b[4]) + 1, maxy - 1 );
+	if ( hiz.isOccluded( x0, y0, x1, y1, b[5] ) ) {
+	    shapesOccluded++;
+	    return true;
+	}
+	return false;
+    }
+
+    /*======== public int getShapesOccluded() ==========
+      Returns: How many shapes isHidden found to be behind what
+      was already drawn, and how many triangles drawPolygons
+      skipped for the same reason
+      ====================*/
+    public int getShapesOccluded() {
+	return shapesOccluded;
+    }
+    public int getTrianglesOccluded() {
+	return trianglesOccluded;
+    }
+
     /*======== public void drawPolygons() ==========
       Inputs:  EdgeMatrix pm
                Color c 
       Returns: 
       
-      Go through the point matrix as if it were a polygon matrix
-      Call drawline in batches of 3s to create triangles.
+      Go through the triangles of the polygon matrix (its index
+      buffer, see EdgeMatrix.addTriangle).
+
+      Back faces are culled for the whole matrix first (see
+      EdgeMatrix.frontFaces); if the points were put in place
+      by a mirroring transform, mirrored should be set since
+      the triangles' winding is reversed. Each front facing triangle is then
+      set up once (for the selected raster mode, with a fill
+      color picked) and dropped into the bin of every screen
+      tile its bounding box touches. The
+      tiles are then rasterized independently, in parallel when
+      there is enough work. Inside a tile triangles are drawn in
+      the order they were given, so the result doesn't depend on
+      the number of threads.
  
       04/16/12 22:05:02
       jdyrlandweaver
       ====================*/
     public void drawPolygons(EdgeMatrix pm, Color c) {
+	drawPolygons( pm, c.getRGB() );
+    }
+
+    public void drawPolygons(EdgeMatrix pm, int rgb) {
+	drawPolygons( pm, rgb, false );
+    }
+
+    public void drawPolygons(EdgeMatrix pm, int rgb, boolean mirrored) {
 	
-	if ( pm.getLastCol() < 3 ) 
+	if ( pm.getTriangleCount() == 0 ) 
 	    return;
-	double botX; int botY;
-	double midX;int midY;
-	double topX;int topY;
-	for (int i=0; i < pm.getLastCol() - 2; i+=3)  {
-	    
-	    if ( pm.calculateDot( i ) > 0 ) {
-
-		int getYi = Math.round((float)pm.getY(i));
-		int getYi1 = Math.round((float)pm.getY(i+1));
-		int getYi2 = Math.round((float)pm.getY(i+2));
-
-		drawLine( (int)pm.getX(i), getYi,pm.getZ(i),
-			  (int)pm.getX(i+1), getYi1,pm.getZ(i+1), c);
-		drawLine( (int)pm.getX(i+1), getYi1,pm.getZ(i+1),
-			  (int)pm.getX(i+2), getYi2,pm.getZ(i+2), c);
-		drawLine( (int)pm.getX(i+2), getYi2,pm.getZ(i+2),
-			  (int)pm.getX(i), getYi,pm.getZ(i), c);
-
-		if(getYi<getYi1 && getYi<getYi2){
-		    botY=getYi; botX=pm.getX(i); 
-		    if(getYi1<getYi2){
-			midY=getYi1; midX=pm.getX(i+1);
-			topY=getYi2; topX=pm.getX(i+2); 
-		    }
-		    else{
-			midY = getYi2; midX = pm.getX(i+2);
-			topY = getYi1; topX = pm.getX(i+1);
-		    }
-		}
-		else if (getYi1<getYi && getYi1<getYi2){
-		    botY = getYi1; botX = pm.getX(i+1);
-		    if(getYi<getYi2){
-			midY = getYi; midX = pm.getX(i); 
-			topY = getYi2; topX = pm.getX(i+2);
-		    }
-		    else{
-			midY = getYi2; midX = pm.getX(i+2); 
-			topY = getYi; topX = pm.getX(i);
-		    }
-		}
-		else{
-		    botY = getYi2; botX = pm.getX(i+2); 
-		    if(getYi < getYi1){
-			midY = getYi; midX = pm.getX(i); 
-			topY = getYi1; topX = pm.getX(i+1);
-		    }
-		    else{
-			midY = getYi1; midX = pm.getX(i+1);
-			topY = getYi; topX = pm.getX(i);
-		    }
-		}
-		Random rand = new Random();
-		float r = rand.nextFloat();
-		float g = rand.nextFloat();
-		float b = rand.nextFloat();
-		Color tmp = new Color(r,g,b);
-		double d0 = (topX-botX) / (topY-botY);		    
-		double d1 = (midX-botX) / (midY-botY);
-		double x0 = botX;
-		double x1 = botX;
-		double z0 = zbuffer[(int)x0][botY];
-		double z1 = zbuffer[(int)x1][botY];
-		if(botY != topY){
-		    int y;
-		    for(y = botY; y<midY; y += 1){
-			z0 = zbuffer[(int)x0][y];
-			z1 = zbuffer[(int)x1][y];
-			drawLine((int)x0,y,z0,(int)x1,y,z1,tmp);
-			x0 += d0;
-			x1 += d1;
-		    }
-		    d1 = (topX-midX) / (topY-midY);
-		    x1 = midX;
-		    for(y = midY; y<topY; y += 1){
-			z0 = zbuffer[(int)x0][y];
-			z1 = zbuffer[(int)x1][y];
-			drawLine((int)x0,y,z0,(int)x1,y,z1,tmp);
-			x0 += d0;
-			x1 += d1;
-		    }
-		}
-		else{
-		    System.out.println("flat polygon!");
-		}
 
+	//whole shape off screen, nothing to do
+	pm.getBounds( bounds );
+	if ( bounds[3] < -1 || bounds[0] > maxx ||
+	     bounds[4] < -1 || bounds[1] > maxy ) {
+	    shapesClipped++;
+	    return;
+	}
+	boolean inGuardBand = bounds[0] >= -GUARD_BAND &&
+	    bounds[3] <= maxx + GUARD_BAND &&
+	    bounds[1] >= -GUARD_BAND && bounds[4] <= maxy + GUARD_BAND;
+
+	int numTris = pm.getTriangleCount();
+	ensureSetupCapacity( numTris );
+
+	visible = pm.frontFaces( visible, mirrored );
+	int binned = 0;
+	for ( int w = 0; w < visible.length && w << 6 < numTris; w++ ) {
+	    long bits = visible[w];
+	    while ( bits != 0 ) {
+		int tri = (w << 6) + Long.numberOfTrailingZeros( bits );
+		bits &= bits - 1;
+		binned += bin( pm, tri, inGuardBand );
 	    }
 	}
+	rasterizeTiles( rgb, binned );
+    }
+
+    /*======== public int getShapesClipped() ==========
+      Returns: How many drawPolygons calls were skipped because
+      the whole shape was off screen, and how many triangles
+      had to be clipped to the guard band
+      ====================*/
+    public int getShapesClipped() {
+	return shapesClipped;
+    }
+    public int getTrianglesClipped() {
+	return trianglesClipped;
+    }
+
+    private void ensureSetupCapacity(int n) {
+	if ( triColor.length < n ) {
+	    n = Math.max( n, triColor.length * 2 );
+	    triColor = Arrays.copyOf( triColor, n );
+	    setup = Arrays.copyOf( setup, SETUP_SIZE * n );
+	    fixed = Arrays.copyOf( fixed, FIXED_SIZE * n );
+	}
+    }
+
+    /*======== private int bin() ==========
+      Inputs:  EdgeMatrix pm
+               int tri
+	       boolean inGuardBand
+      Returns: The number of tiles the triangle was added to
+
+      Picks a fill color for triangle tri of pm and bins it,
+      unless it is entirely off screen.
+
+      Triangles reaching past the guard band (GUARD_BAND pixels
+      around the screen) are clipped to it first and binned as
+      a fan. Inside the guard band the rasterizers clip to the
+      screen exactly by limiting their bounding boxes, and
+      fixed point coordinates can't overflow. inGuardBand says
+      the whole shape is known to be inside.
+      ====================*/
+    private int bin(EdgeMatrix pm, int tri, boolean inGuardBand) {
+
+	int rgb = rand.nextInt() & 0xFFFFFF;
+
+	int i0 = pm.getIndex(tri, 0);
+	int i1 = pm.getIndex(tri, 1);
+	int i2 = pm.getIndex(tri, 2);
+	double x0 = pm.getX(i0), x1 = pm.getX(i1), x2 = pm.getX(i2);
+	double y0 = pm.getY(i0), y1 = pm.getY(i1), y2 = pm.getY(i2);
+	double minx = Math.min( x0, Math.min(x1, x2) );
+	double maxX = Math.max( x0, Math.max(x1, x2) );
+	double miny = Math.min( y0, Math.min(y1, y2) );
+	double maxY = Math.max( y0, Math.max(y1, y2) );
+	if ( maxX < -1 || minx > maxx || maxY < -1 || miny > maxy )
+	    return 0;
+
+	if ( inGuardBand || ( minx >= -GUARD_BAND && maxX <= maxx + GUARD_BAND &&
+			      miny >= -GUARD_BAND && maxY <= maxy + GUARD_BAND ) ) {
+	    vert[0] = x0; vert[1] = y0; vert[2] = pm.getZ(i0);
+	    vert[3] = x1; vert[4] = y1; vert[5] = pm.getZ(i1);
+	    vert[6] = x2; vert[7] = y2; vert[8] = pm.getZ(i2);
+	    return binTriangle( rgb );
+	}
+
+	trianglesClipped++;
+	for ( int k = 0; k < 3; k++ ) {
+	    int c = pm.getIndex(tri, k);
+	    clip[3*k] = pm.getX(c);
+	    clip[3*k+1] = pm.getY(c);
+	    clip[3*k+2] = pm.getZ(c);
+	}
+	int n = 3;
+	n = clipPolygon( n, 0, -GUARD_BAND, false );
+	n = clipPolygon( n, 0, maxx + GUARD_BAND, true );
+	n = clipPolygon( n, 1, -GUARD_BAND, false );
+	n = clipPolygon( n, 1, maxy + GUARD_BAND, true );
+
+	int added = 0;
+	for ( int k = 1; k < n - 1; k++ ) {
+	    System.arraycopy( clip, 0, vert, 0, 3 );
+	    System.arraycopy( clip, 3*k, vert, 3, 6 );
+	    added += binTriangle( rgb );
+	}
+	return added;
+    }
+
+    /*======== private int clipPolygon() ==========
+      Inputs:  int n
+               int axis
+	       double bound
+	       boolean max
+      Returns: The number of vertices left
+
+      One Sutherland-Hodgman pass over the n vertex polygon in
+      clip, keeping the side of axis (0 = x, 1 = y) that is
+      <= bound if max is set, >= bound otherwise. Depth is
+      interpolated along with the cut edges.
+      ====================*/
+    private int clipPolygon(int n, int axis, double bound, boolean max) {
+
+	int out = 0;
+	for ( int k = 0; k < n; k++ ) {
+	    int a = 3 * k;
+	    int b = 3 * ((k + 1) % n);
+	    double da = max ? bound - clip[a+axis] : clip[a+axis] - bound;
+	    double db = max ? bound - clip[b+axis] : clip[b+axis] - bound;
+	    if ( da >= 0 ) {
+		clipTmp[3*out] = clip[a];
+		clipTmp[3*out+1] = clip[a+1];
+		clipTmp[3*out+2] = clip[a+2];
+		out++;
+	    }
+	    if ( (da >= 0) != (db >= 0) ) {
+		double t = da / (da - db);
+		clipTmp[3*out] = clip[a] + t * (clip[b] - clip[a]);
+		clipTmp[3*out+1] = clip[a+1] + t * (clip[b+1] - clip[a+1]);
+		clipTmp[3*out+2] = clip[a+2] + t * (clip[b+2] - clip[a+2]);
+		out++;
+	    }
+	}
+	System.arraycopy( clipTmp, 0, clip, 0, 3 * out );
+	return out;
+    }
+
+    /*======== private int binTriangle() ==========
+      Inputs:  int rgb
+      Returns: The number of tiles the triangle was added to
+
+      Sets up the triangle in vert for the current raster mode
+      in the next free setup slot and adds it to the bin of each
+      tile its bounding box overlaps.
+      ====================*/
+    private int binTriangle(int rgb) {
+
+	int tri = numSetup++;
+	ensureSetupCapacity( numSetup );
+	int o = tri * SETUP_SIZE;
+	if ( rasterMode == RASTER_SCANLINE )
+	    setupScanline( o );
+	else
+	    setupHalfspace( tri );
+	triColor[tri] = rgb;
+
+	//bounding box, one pixel of slack for the (int) casts
+	double minx = Math.min( setup[o], Math.min(setup[o+3], setup[o+6]) );
+	double maxX = Math.max( setup[o], Math.max(setup[o+3], setup[o+6]) );
+	double miny = Math.min( setup[o+1], Math.min(setup[o+4], setup[o+7]) );
+	double maxY = Math.max( setup[o+1], Math.max(setup[o+4], setup[o+7]) );
+	int x0 = Math.max( (int)Math.floor(minx) - 1, 0 );
+	int x1 = Math.min( (int)Math.ceil(maxX) + 1, maxx - 1 );
+	int y0 = Math.max( (int)Math.floor(miny), 0 );
+	int y1 = Math.min( (int)Math.ceil(maxY), maxy - 1 );
+	if ( x0 > x1 || y0 > y1 )
+	    return 0;
+
+	double maxZ = Math.max( setup[o+2], Math.max(setup[o+5], setup[o+8]) );
+	if ( hiz.isOccluded( x0, y0, x1, y1, maxZ ) ) {
+	    trianglesOccluded++;
+	    return 0;
+	}
+
+	int added = 0;
+	for ( int ty = y0 / TILE_SIZE; ty <= y1 / TILE_SIZE; ty++ ) {
+	    for ( int tx = x0 / TILE_SIZE; tx <= x1 / TILE_SIZE; tx++ ) {
+		int t = ty * tilesX + tx;
+		if ( binCount[t] == 0 )
+		    activeTiles[numActive++] = t;
+		else if ( binCount[t] == bins[t].length )
+		    bins[t] = Arrays.copyOf( bins[t], bins[t].length * 2 );
+		bins[t][binCount[t]++] = tri;
+		added++;
+	    }
+	}
+	return added;
+    }
+
+    /*======== private void setupScanline() ==========
+      Inputs:  int o
+      Returns: 
+      Stores the triangle in vert in the setup array at
+      offset o, vertices sorted into bot/mid/top order with y
+      rounded to the nearest row.
+      ====================*/
+    private void setupScanline(int o) {
+
+	int getYi = Math.round((float)vert[1]);
+	int getYi1 = Math.round((float)vert[4]);
+	int getYi2 = Math.round((float)vert[7]);
+	int bot, mid, top;
+
+	if(getYi<getYi1 && getYi<getYi2){
+	    bot = 0;
+	    if(getYi1<getYi2){
+		mid = 3; top = 6;
+	    }
+	    else{
+		mid = 6; top = 3;
+	    }
+	}
+	else if (getYi1<getYi && getYi1<getYi2){
+	    bot = 3;
+	    if(getYi<getYi2){
+		mid = 0; top = 6;
+	    }
+	    else{
+		mid = 6; top = 0;
+	    }
+	}
+	else{
+	    bot = 6;
+	    if(getYi < getYi1){
+		mid = 0; top = 3;
+	    }
+	    else{
+		mid = 3; top = 0;
+	    }
+	}
+
+	setup[o] = vert[bot];
+	setup[o+1] = Math.round((float)vert[bot+1]);
+	setup[o+2] = vert[bot+2];
+	setup[o+3] = vert[mid];
+	setup[o+4] = Math.round((float)vert[mid+1]);
+	setup[o+5] = vert[mid+2];
+	setup[o+6] = vert[top];
+	setup[o+7] = Math.round((float)vert[top+1]);
+	setup[o+8] = vert[top+2];
+    }
+
+    /*======== private void setupHalfspace() ==========
+      Inputs:  int tri
+      Returns: 
+      Snaps the triangle in vert to 28.4 fixed point (1/16th
+      of a pixel) and stores it in the fixed array, swapping
+      the last two vertices if needed so the triangle has
+      positive area (see halfspaceTriangle). The snapped
+      positions also go into the setup array, along with z,
+      for binning.
+      ====================*/
+    private void setupHalfspace(int tri) {
+
+	int x0 = snap( vert[0] ), y0 = snap( vert[1] );
+	int x1 = snap( vert[3] ), y1 = snap( vert[4] );
+	int x2 = snap( vert[6] ), y2 = snap( vert[7] );
+	int v1 = 3;
+	int v2 = 6;
+	long area = (long)(x1 - x0) * (y2 - y0) - (long)(y1 - y0) * (x2 - x0);
+	if ( area < 0 ) {
+	    int t = x1; x1 = x2; x2 = t;
+	    t = y1; y1 = y2; y2 = t;
+	    v1 = 6;
+	    v2 = 3;
+	}
+
+	int f = tri * FIXED_SIZE;
+	fixed[f] = x0;
+	fixed[f+1] = y0;
+	fixed[f+2] = x1;
+	fixed[f+3] = y1;
+	fixed[f+4] = x2;
+	fixed[f+5] = y2;
+
+	int o = tri * SETUP_SIZE;
+	setup[o] = x0 / (double)SUBPIXELS;
+	setup[o+1] = y0 / (double)SUBPIXELS;
+	setup[o+2] = vert[2];
+	setup[o+3] = x1 / (double)SUBPIXELS;
+	setup[o+4] = y1 / (double)SUBPIXELS;
+	setup[o+5] = vert[v1+2];
+	setup[o+6] = x2 / (double)SUBPIXELS;
+	setup[o+7] = y2 / (double)SUBPIXELS;
+	setup[o+8] = vert[v2+2];
+    }
+
+    private static int snap(double d) {
+	return (int)Math.round( d * SUBPIXELS );
+    }
+
+    /*======== private void rasterizeTiles() ==========
+      Inputs:  int edgeColor
+               int binned
+      Returns: 
+
+      Rasterizes every tile that has something binned in it,
+      on the common fork-join pool if there are at least
+      PARALLEL_THRESHOLD binned triangles, then empties the bins.
+      ====================*/
+    private void rasterizeTiles(int edgeColor, int binned) {
+
+	if ( numActive == 0 ) {
+	    numSetup = 0;
+	    return;
+	}
+	if ( parallel && numActive > 1 && binned >= PARALLEL_THRESHOLD )
+	    ForkJoinPool.commonPool().invoke( new TileTask(edgeColor, 0,
+							   numActive) );
+	else
+	    for ( int i = 0; i < numActive; i++ )
+		rasterizeTile( activeTiles[i], edgeColor );
+
+	for ( int i = 0; i < numActive; i++ )
+	    binCount[ activeTiles[i] ] = 0;
+	numActive = 0;
+	numSetup = 0;
+    }
+
+    private class TileTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	private int edgeColor, lo, hi;
+
+	TileTask(int edgeColor, int lo, int hi) {
+	    this.edgeColor = edgeColor;
+	    this.lo = lo;
+	    this.hi = hi;
+	}
+
+	protected void compute() {
+	    if ( hi - lo == 1 )
+		rasterizeTile( activeTiles[lo], edgeColor );
+	    else {
+		int mid = (lo + hi) >>> 1;
+		invokeAll( new TileTask(edgeColor, lo, mid),
+			   new TileTask(edgeColor, mid, hi) );
+	    }
+	}
+    }
+
+    /*======== private void rasterizeTile() ==========
+      Inputs:  int t
+               int edgeColor
+      Returns: 
+
+      Draws every triangle binned in tile t, clipped to the tile,
+      then marks the hierarchical z cells under them dirty.
+      ====================*/
+    private void rasterizeTile(int t, int edgeColor) {
+
+	int cx0 = (t % tilesX) * TILE_SIZE;
+	int cy0 = (t / tilesX) * TILE_SIZE;
+	int cx1 = Math.min( cx0 + TILE_SIZE, maxx ) - 1;
+	int cy1 = Math.min( cy0 + TILE_SIZE, maxy ) - 1;
+	int[] bin = bins[t];
+
+	if ( rasterMode == RASTER_SCANLINE )
+	    for ( int i = 0; i < binCount[t]; i++ )
+		scanlineTriangle( bin[i], edgeColor, cx0, cy0, cx1, cy1 );
+	else
+	    for ( int i = 0; i < binCount[t]; i++ )
+		halfspaceTriangle( bin[i], cx0, cy0, cx1, cy1 );
+
+	for ( int i = 0; i < binCount[t]; i++ ) {
+	    int o = bin[i] * SETUP_SIZE;
+	    double minx = Math.min( setup[o], Math.min(setup[o+3], setup[o+6]) );
+	    double maxX = Math.max( setup[o], Math.max(setup[o+3], setup[o+6]) );
+	    double miny = Math.min( setup[o+1], Math.min(setup[o+4], setup[o+7]) );
+	    double maxY = Math.max( setup[o+1], Math.max(setup[o+4], setup[o+7]) );
+	    hiz.markDirty( Math.max( (int)Math.floor(minx) - 1, cx0 ),
+			   Math.max( (int)Math.floor(miny), cy0 ),
+			   Math.min( (int)Math.ceil(maxX) + 1, cx1 ),
+			   Math.min( (int)Math.ceil(maxY), cy1 ) );
+	}
+    }
+
+    /*======== private void halfspaceTriangle() ==========
+      Inputs:  int tri
+	       int cx0
+	       int cy0
+	       int cx1
+	       int cy1
+      Returns: 
+
+      Fills one set up triangle using edge functions, limited
+      to the clip rectangle (cx0, cy0) - (cx1, cy1).
+
+      For the edge a->b, E(p) = (b.x-a.x)(p.y-a.y) - (b.y-a.y)(p.x-a.x)
+      is positive on the inside of a positive area triangle.
+      A pixel (sampled at its integer coordinates) is drawn when
+      all three are positive, or zero on a top or left edge, so
+      pixels on an edge shared by two triangles are drawn
+      exactly once. Vertices are 28.4 fixed point, so E is an
+      exact integer, and folding the fill rule into E up front
+      makes the inside test a sign check.
+
+      E is linear along a row, so the pixels inside all three
+      edges are one run that can be found exactly with a
+      division per edge. The run is then handed to the span
+      kernel, with depth interpolated across the triangle's
+      plane.
+      ====================*/
+    private void halfspaceTriangle(int tri, int cx0, int cy0,
+				   int cx1, int cy1) {
+
+	int f = tri * FIXED_SIZE;
+	int x0 = fixed[f], y0 = fixed[f+1];
+	int x1 = fixed[f+2], y1 = fixed[f+3];
+	int x2 = fixed[f+4], y2 = fixed[f+5];
+	int o = tri * SETUP_SIZE;
+	double z0 = setup[o+2], z1 = setup[o+5], z2 = setup[o+8];
+
+	//first and last whole pixels inside the bounding box
+	int minx = Math.max( cx0, (Math.min(x0, Math.min(x1, x2)) + SUBPIXELS - 1) >> SUBPIXEL_BITS );
+	int maxX = Math.min( cx1, Math.max(x0, Math.max(x1, x2)) >> SUBPIXEL_BITS );
+	int miny = Math.max( cy0, (Math.min(y0, Math.min(y1, y2)) + SUBPIXELS - 1) >> SUBPIXEL_BITS );
+	int maxY = Math.min( cy1, Math.max(y0, Math.max(y1, y2)) >> SUBPIXEL_BITS );
+	long area = (long)(x1 - x0) * (y2 - y0) - (long)(y1 - y0) * (x2 - x0);
+	if ( minx > maxX || miny > maxY || area <= 0 )
+	    return;
+
+	//per edge gradients, w0 is the edge opposite vertex 0
+	long a0 = y1 - y2, b0 = x2 - x1;
+	long a1 = y2 - y0, b1 = x0 - x2;
+	long a2 = y0 - y1, b2 = x1 - x0;
+
+	long px = (long)minx << SUBPIXEL_BITS;
+	long py = (long)miny << SUBPIXEL_BITS;
+	long w0row = b0 * (py - y1) + a0 * (px - x1);
+	long w1row = b1 * (py - y2) + a1 * (px - x2);
+	long w2row = b2 * (py - y0) + a2 * (px - x0);
+
+	//z = z0 + (w1 (z1-z0) + w2 (z2-z0)) / area
+	double dzdx = (a1 * (z1 - z0) + a2 * (z2 - z0)) * SUBPIXELS / area;
+	double dzdy = (b1 * (z1 - z0) + b2 * (z2 - z0)) * SUBPIXELS / area;
+	double zrow = z0 + (w1row * (z1 - z0) + w2row * (z2 - z0)) / area;
+
+	//only top and left edges keep their zeros
+	if ( !(a0 > 0 || (a0 == 0 && b0 > 0)) )
+	    w0row--;
+	if ( !(a1 > 0 || (a1 == 0 && b1 > 0)) )
+	    w1row--;
+	if ( !(a2 > 0 || (a2 == 0 && b2 > 0)) )
+	    w2row--;
+
+	//steps for one whole pixel
+	a0 <<= SUBPIXEL_BITS; b0 <<= SUBPIXEL_BITS;
+	a1 <<= SUBPIXEL_BITS; b1 <<= SUBPIXEL_BITS;
+	a2 <<= SUBPIXEL_BITS; b2 <<= SUBPIXEL_BITS;
+
+	int rgb = triColor[tri];
+	int width = maxX - minx;
+	for ( int y = miny; y <= maxY; y++ ) {
+	    int first = 0;
+	    int last = width;
+	    first = Math.max( first, runStart(w0row, a0) );
+	    first = Math.max( first, runStart(w1row, a1) );
+	    first = Math.max( first, runStart(w2row, a2) );
+	    last = Math.min( last, runEnd(w0row, a0, width) );
+	    last = Math.min( last, runEnd(w1row, a1, width) );
+	    last = Math.min( last, runEnd(w2row, a2, width) );
+	    if ( first <= last )
+		kernels.fillSpan( zbuffer, pixels, y * maxx + minx + first,
+				  last - first + 1, zrow + dzdx * first,
+				  dzdx, rgb );
+	    w0row += b0;
+	    w1row += b1;
+	    w2row += b2;
+	    zrow += dzdy;
+	}
+    }
+
+    /*======== private static int runStart() ==========
+      Inputs:  long w
+               long a
+      Returns: The first k >= 0 with w + a * k >= 0, or
+               Integer.MAX_VALUE if there is none
+      ====================*/
+    private static int runStart(long w, long a) {
+	if ( w >= 0 )
+	    return 0;
+	if ( a <= 0 )
+	    return Integer.MAX_VALUE;
+	return (int)Math.min( -Math.floorDiv( w, a ), Integer.MAX_VALUE );
+    }
+
+    /*======== private static int runEnd() ==========
+      Inputs:  long w
+               long a
+	       int max
+      Returns: The last k <= max with w + a * k >= 0 (given
+               that some k >= 0 works), or -1 if there is none
+      ====================*/
+    private static int runEnd(long w, long a, int max) {
+	if ( a >= 0 )
+	    return w + a * max >= 0 ? max : -1;
+	if ( w < 0 )
+	    return -1;
+	return (int)Math.min( w / -a, max );
+    }
+
+    /*======== private void scanlineTriangle() ==========
+      Inputs:  int tri
+               int edgeColor
+	       int cx0
+	       int cy0
+	       int cx1
+	       int cy1
+      Returns: 
+
+      Scanline conversion of one set up triangle, limited to
+      the clip rectangle (cx0, cy0) - (cx1, cy1). The edges are
+      drawn in edgeColor, then the inside is filled a row at a
+      time with the triangle's own color. Depth is interpolated
+      down the edges and across each row.
+      ====================*/
+    private void scanlineTriangle(int tri, int edgeColor,
+				  int cx0, int cy0, int cx1, int cy1) {
+
+	int o = tri * SETUP_SIZE;
+	double botX = setup[o], botZ = setup[o+2];
+	double midX = setup[o+3], midZ = setup[o+5];
+	double topX = setup[o+6], topZ = setup[o+8];
+	int botY = (int)setup[o+1];
+	int midY = (int)setup[o+4];
+	int topY = (int)setup[o+7];
+
+	drawLine( (int)botX, botY, botZ, (int)midX, midY, midZ,
+		  edgeColor, cx0, cy0, cx1, cy1 );
+	drawLine( (int)midX, midY, midZ, (int)topX, topY, topZ,
+		  edgeColor, cx0, cy0, cx1, cy1 );
+	drawLine( (int)topX, topY, topZ, (int)botX, botY, botZ,
+		  edgeColor, cx0, cy0, cx1, cy1 );
+
+	if ( botY == topY )
+	    return;
+
+	int rgb = triColor[tri];
+	double d0 = (topX-botX) / (topY-botY);
+	double dz0 = (topZ-botZ) / (topY-botY);
+	int ystart = Math.max( botY, cy0 );
+	int yend = Math.min( topY - 1, cy1 );
+
+	for ( int y = ystart; y <= yend; y++ ) {
+	    double x0 = botX + d0 * (y - botY);
+	    double z0 = botZ + dz0 * (y - botY);
+	    double x1, z1;
+	    if ( y < midY ) {
+		x1 = botX + (midX-botX) * (y - botY) / (midY-botY);
+		z1 = botZ + (midZ-botZ) * (y - botY) / (midY-botY);
+	    }
+	    else {
+		x1 = midX + (topX-midX) * (y - midY) / (topY-midY);
+		z1 = midZ + (topZ-midZ) * (y - midY) / (topY-midY);
+	    }
+	    drawSpan( y, (int)x0, z0, (int)x1, z1, rgb, cx0, cx1 );
+	}
     }
 
     /*======== public void drawLines() ==========
@@ -148,45 +811,187 @@ public class Frame {
       calls drawLine so that it draws all the lines within PointMatrix pm
       ====================*/
     public void drawLines(EdgeMatrix pm, Color c) {
+	drawLines( pm, c.getRGB() );
+    }
+
+    public void drawLines(EdgeMatrix pm, int rgb) {
 	
 	for (int i=0; i < pm.getLastCol() - 1; i+=2) 
 	    drawLine( (int)pm.getX(i), (int)pm.getY(i), pm.getZ(i),
-		      (int)pm.getX(i+1), (int)pm.getY(i+1), pm.getZ(i+1),c);
+		      (int)pm.getX(i+1), (int)pm.getY(i+1), pm.getZ(i+1),rgb);
     }	
 
 
     /*======== public void drawLine() ==========
       Inputs:  int x0
       int y0
+      double z0
       int x1
       int y1
+      double z1
       Color c 
       Returns: 
-      Wrapper for java's built in drawLine routine
+      Bresenham's line, for every octant, straight into the
+      image's pixel array. Depth is interpolated from z0 to z1
+      and tested at every pixel.
       ====================*/
     public void drawLine(int x0, int y0, double z0,
 			 int x1, int y1, double z1, Color c) {
+	drawLine( x0, y0, z0, x1, y1, z1, c.getRGB() );
+    }
+
+    public void drawLine(int x0, int y0, double z0,
+			 int x1, int y1, double z1, int rgb) {
+	drawLine( x0, y0, z0, x1, y1, z1, rgb,
+		  0, 0, maxx - 1, maxy - 1 );
+    }
+
+    /*======== private void drawLine() ==========
+      Inputs:  int x0 .. double z1
+               int rgb
+	       int cx0
+	       int cy0
+	       int cx1
+	       int cy1
+      Returns: 
+
+      The line from (x0, y0) to (x1, y1), limited to the clip
+      rectangle (cx0, cy0) - (cx1, cy1).
+
+      Walking the long axis, pixel i is i steps along it and
+      round(i * short / long) steps along the other one, kept
+      as a whole number plus a remainder so only integer adds
+      are needed. Pixels before the clip rectangle on the long
+      axis are skipped by working out the remainder where the
+      walk starts, so the pixels drawn are exactly the ones the
+      whole line would have drawn there.
+      ====================*/
+    private void drawLine(int x0, int y0, double z0,
+			  int x1, int y1, double z1, int rgb,
+			  int cx0, int cy0, int cx1, int cy1) {
 
-	boolean isVisible = (zbuffer[x0][y0]<=z0+1) && (zbuffer[x1][y1]<=z1+1);
+	//in long, since the ends may be anywhere in int range
+	long dx = (long)x1 - x0, dy = (long)y1 - y0;
+	long adx = Math.abs( dx ), ady = Math.abs( dy );
+	boolean steep = ady > adx;
 
-	for(int y = y0; y<y1;y++){
-	    double extent = (y-y0 + 0.0) / (y1-y0 + 0.0);
-	    int x = (int)(x0 + (x1-x0)*extent);
-	    double z = z0 + (z1-z0)*extent;
-	    if(zbuffer[x][y] < z)
-		zbuffer[x][y] = z;
+	//long (major) and short (minor) axes
+	int major0 = steep ? y0 : x0;
+	int minor0 = steep ? x0 : y0;
+	long n = steep ? ady : adx;
+	long along = steep ? adx : ady;
+	int smajor = (steep ? dy : dx) < 0 ? -1 : 1;
+	int sminor = (steep ? dx : dy) < 0 ? -1 : 1;
+	int lo = steep ? cy0 : cx0, hi = steep ? cy1 : cx1;
+	int minorLo = steep ? cx0 : cy0, minorHi = steep ? cx1 : cy1;
+
+	//the steps i = first .. last whose long axis is on screen
+	long first, last;
+	if ( smajor > 0 ) {
+	    first = Math.max( 0, (long)lo - major0 );
+	    last = Math.min( n, (long)hi - major0 );
 	}
-	if (isVisible){
-	    Graphics2D g = bi.createGraphics();
-	    g.setColor(c);
-	    g.drawLine(x0,y0,x1,y1);
+	else {
+	    first = Math.max( 0, (long)major0 - hi );
+	    last = Math.min( n, (long)major0 - lo );
 	}
-	else{
-	    // System.out.println("zbuf(x0,y0),z0,zbuf(x1)(y1),z1: " + 
-	    // 		       zbuffer[x0][y0]+","+z0+","+zbuffer[x1][y1]+","+z1);
+	if ( first > last )
+	    return;
+
+	//minor offset q = (2 i along + n) / 2n, rem what's left over.
+	//2 i along fits in a long as i and along are under 2^32
+	long twoN = 2 * Math.max( n, 1 );
+	long num = 2 * first * along + n;
+	long q = num / twoN;
+	long rem = num % twoN;
+	double dz = n == 0 ? 0 : (z1 - z0) / n;
+	double z = z0 + dz * first;
+
+	int major = (int)(major0 + smajor * first);
+	for ( long i = first; i <= last; i++ ) {
+	    long minor = minor0 + sminor * q;
+	    if ( minor >= minorLo && minor <= minorHi ) {
+		int p = steep ? major * maxx + (int)minor : (int)minor * maxx + major;
+		if ( zbuffer[p] <= z ) {
+		    zbuffer[p] = (float)z;
+		    pixels[p] = rgb;
+		}
+	    }
+	    else if ( (sminor > 0) == (minor > minorHi) )
+		return;
+	    major += smajor;
+	    z += dz;
+	    rem += 2 * along;
+	    if ( rem >= twoN ) {
+		rem -= twoN;
+		q++;
+	    }
 	}
     }	
+
+    /*======== public void drawSpan() ==========
+      Inputs:  int y
+      int x0
+      double z0
+      int x1
+      double z1
+      int rgb
+      Returns: 
+      Fills row y from x0 to x1 (inclusive) with rgb, writing
+      straight into the image's pixel array. Depth is
+      interpolated across the span and tested per pixel.
+      Anything off screen is skipped.
+      ====================*/
+    public void drawSpan(int y, int x0, double z0,
+			 int x1, double z1, int rgb) {
+	if ( y >= 0 && y < maxy )
+	    drawSpan( y, x0, z0, x1, z1, rgb, 0, maxx - 1 );
+    }
+
+    private void drawSpan(int y, int x0, double z0,
+			  int x1, double z1, int rgb, int cx0, int cx1) {
+
+	if ( x0 > x1 ) {
+	    int ti = x0; x0 = x1; x1 = ti;
+	    double td = z0; z0 = z1; z1 = td;
+	}
+	double dz = x1 == x0 ? 0 : (z1 - z0) / (x1 - x0);
+	if ( x0 < cx0 ) {
+	    z0 += dz * (cx0 - x0);
+	    x0 = cx0;
+	}
+	if ( x1 > cx1 )
+	    x1 = cx1;
+
+	if ( x0 <= x1 )
+	    kernels.fillSpan( zbuffer, pixels, y * maxx + x0, x1 - x0 + 1,
+			      z0, dz, rgb );
+    }
    
+    /*======== public void setIndexedOutput() ==========
+      Inputs:  boolean i
+      Returns: 
+      Drawing is always done in full color. With this set,
+      save quantizes the finished image to a 256 color
+      palette as it writes it.
+      ====================*/
+    public void setIndexedOutput(boolean i) {
+	indexed = i;
+    }
+
+    public boolean isIndexedOutput() {
+	return indexed;
+    }
+
+    private BufferedImage toIndexed() {
+	BufferedImage out = new BufferedImage( maxx, maxy,
+					       BufferedImage.TYPE_BYTE_INDEXED );
+	Graphics2D g = out.createGraphics();
+	g.drawImage( bi, 0, 0, null );
+	g.dispose();
+	return out;
+    }
+
     /*======== public void save() ==========
       Inputs:  String filename 
       Returns: 
@@ -195,7 +1000,7 @@ public class Frame {
     public void save(String filename) {
 	try {
 	    File fn = new File(filename);
-	    ImageIO.write(bi,"png",fn);
+	    ImageIO.write(indexed ? toIndexed() : bi,"png",fn);
 	}
 	catch (IOException e) {}
     }
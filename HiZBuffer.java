@@ -0,0 +1,147 @@
+/*========== HiZBuffer.java ==========
+  A coarse depth pyramid kept alongside a Frame's z-buffer, used
+  to throw away triangles and whole shapes that are behind
+  everything already drawn where they would land.
+
+  Bigger z is closer, so each cell holds the farthest (smallest)
+  z-buffer value under it. Level 1 cells are BLOCK x BLOCK pixels,
+  level 2 cells are the Frame's tiles. If something's closest
+  point is still farther than a cell's value it can't show up
+  anywhere in that cell.
+
+  Drawing only ever raises z-buffer values, so a cell that hasn't
+  been recomputed since is too small, never too big: stale cells
+  just reject less. Cells are marked dirty as triangles are
+  drawn and recomputed the next time a query touches them.
+  Every block belongs to exactly one tile, so tiles being drawn
+  on different threads never mark the same cells.
+  =========================*/
+
+import java.util.*;
+
+public class HiZBuffer {
+
+    public static final int BLOCK = 8;
+
+    private float[] zbuffer;
+    private int width, height;
+    private int blocksX, blocksY;
+    private int tileSize, tileBlocks, tilesX, tilesY;
+    private float[] blockMin, tileMin;
+    private boolean[] blockDirty, tileDirty;
+
+    public HiZBuffer(float[] zbuffer, int width, int height, int tileSize) {
+
+	this.zbuffer = zbuffer;
+	this.width = width;
+	this.height = height;
+	this.tileSize = tileSize;
+	tileBlocks = tileSize / BLOCK;
+	blocksX = (width + BLOCK - 1) / BLOCK;
+	blocksY = (height + BLOCK - 1) / BLOCK;
+	tilesX = (width + tileSize - 1) / tileSize;
+	tilesY = (height + tileSize - 1) / tileSize;
+	blockMin = new float[blocksX * blocksY];
+	blockDirty = new boolean[blocksX * blocksY];
+	tileMin = new float[tilesX * tilesY];
+	tileDirty = new boolean[tilesX * tilesY];
+	clear();
+    }
+
+    /*======== public void clear() ==========
+      Inputs:
+      Returns:
+      Call whenever the z-buffer is cleared
+      ====================*/
+    public void clear() {
+	Arrays.fill( blockMin, -Float.MAX_VALUE );
+	Arrays.fill( tileMin, -Float.MAX_VALUE );
+	Arrays.fill( blockDirty, false );
+	Arrays.fill( tileDirty, false );
+    }
+
+    /*======== public void markDirty() ==========
+      Inputs:  int x0
+               int y0
+	       int x1
+	       int y1
+      Returns:
+      Marks the cells under the pixel rectangle (x0, y0) -
+      (x1, y1) as needing to be recomputed. The rectangle
+      must be on screen.
+      ====================*/
+    public void markDirty(int x0, int y0, int x1, int y1) {
+
+	for ( int by = y0 / BLOCK; by <= y1 / BLOCK; by++ )
+	    for ( int bx = x0 / BLOCK; bx <= x1 / BLOCK; bx++ )
+		blockDirty[ by * blocksX + bx ] = true;
+	for ( int ty = y0 / tileSize; ty <= y1 / tileSize; ty++ )
+	    for ( int tx = x0 / tileSize; tx <= x1 / tileSize; tx++ )
+		tileDirty[ ty * tilesX + tx ] = true;
+    }
+
+    /*======== public boolean isOccluded() ==========
+      Inputs:  int x0
+               int y0
+	       int x1
+	       int y1
+	       double z
+      Returns: true if something no closer than z would fail
+               the depth test at every pixel of (x0, y0) - (x1, y1)
+
+      Checks tiles first and only looks at the blocks of a
+      tile if the tile alone can't decide. The rectangle must
+      be on screen.
+      ====================*/
+    public boolean isOccluded(int x0, int y0, int x1, int y1, double z) {
+
+	for ( int ty = y0 / tileSize; ty <= y1 / tileSize; ty++ ) {
+	    for ( int tx = x0 / tileSize; tx <= x1 / tileSize; tx++ ) {
+		int t = ty * tilesX + tx;
+		if ( tileDirty[t] )
+		    refreshTile( tx, ty );
+		if ( z < tileMin[t] )
+		    continue;
+
+		int bx0 = Math.max( x0, tx * tileSize ) / BLOCK;
+		int bx1 = Math.min( x1, (tx + 1) * tileSize - 1 ) / BLOCK;
+		int by0 = Math.max( y0, ty * tileSize ) / BLOCK;
+		int by1 = Math.min( y1, (ty + 1) * tileSize - 1 ) / BLOCK;
+		for ( int by = by0; by <= by1; by++ )
+		    for ( int bx = bx0; bx <= bx1; bx++ )
+			if ( z >= blockMin[ by * blocksX + bx ] )
+			    return false;
+	    }
+	}
+	return true;
+    }
+
+    private void refreshTile(int tx, int ty) {
+
+	float min = Float.MAX_VALUE;
+	int bx1 = Math.min( (tx + 1) * tileBlocks, blocksX );
+	int by1 = Math.min( (ty + 1) * tileBlocks, blocksY );
+	for ( int by = ty * tileBlocks; by < by1; by++ ) {
+	    for ( int bx = tx * tileBlocks; bx < bx1; bx++ ) {
+		int b = by * blocksX + bx;
+		if ( blockDirty[b] )
+		    refreshBlock( bx, by );
+		min = Math.min( min, blockMin[b] );
+	    }
+	}
+	tileMin[ ty * tilesX + tx ] = min;
+	tileDirty[ ty * tilesX + tx ] = false;
+    }
+
+    private void refreshBlock(int bx, int by) {
+
+	float min = Float.MAX_VALUE;
+	int x1 = Math.min( (bx + 1) * BLOCK, width );
+	int y1 = Math.min( (by + 1) * BLOCK, height );
+	for ( int y = by * BLOCK; y < y1; y++ )
+	    for ( int i = y * width + bx * BLOCK; i < y * width + x1; i++ )
+		min = Math.min( min, zbuffer[i] );
+	blockMin[ by * blocksX + bx ] = min;
+	blockDirty[ by * blocksX + bx ] = false;
+    }
+}
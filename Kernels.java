@@ -0,0 +1,79 @@
+/*========== Kernels.java ==========
+  The two innermost loops of the renderer, filling a span of
+  pixels with a depth test and moving a batch of points by a
+  transformation matrix, behind one interface so they can be
+  swapped for SIMD versions.
+
+  get() returns VectorKernels (jdk.incubator.vector) when that
+  class can be loaded, which needs the program to be run with
+  --add-modules jdk.incubator.vector, and ScalarKernels
+  otherwise. Running with -Dkernels=scalar forces the plain
+  loops.
+  =========================*/
+
+public abstract class Kernels {
+
+    private static final Kernels instance = load();
+
+    public static Kernels get() {
+	return instance;
+    }
+
+    private static Kernels load() {
+
+	if ( !"scalar".equals( System.getProperty("kernels") ) ) {
+	    try {
+		return (Kernels)Class.forName( "VectorKernels" )
+		    .getDeclaredConstructor().newInstance();
+	    }
+	    catch ( Throwable t ) {
+		//module not there (NoClassDefFoundError) or no SIMD
+	    }
+	}
+	return new ScalarKernels();
+    }
+
+    /*======== public void fillSpan() ==========
+      Inputs:  float[] zbuffer
+               int[] pixels
+	       int start
+	       int count
+	       double z
+	       double dz
+	       int rgb
+      Returns: 
+      For count pixels starting at index start, where the
+      i-th pixel has depth z + i * dz (worked out in double,
+      then rounded to float), writes rgb and the depth wherever
+      the z-buffer is <= the pixel's depth. Every version must
+      get exactly the same depths, so the same pixels pass
+      whichever is in use.
+      ====================*/
+    public abstract void fillSpan(float[] zbuffer, int[] pixels,
+				  int start, int count,
+				  double z, double dz, int rgb);
+
+    /*======== public void transform() ==========
+      Inputs:  double m00 ... m23 
+               double[] xs
+	       double[] ys
+	       double[] zs
+	       double[] outX
+	       double[] outY
+	       double[] outZ
+	       int from
+	       int to
+      Returns: 
+      For from <= c < to, sets (outX[c], outY[c], outZ[c]) to
+      the top three rows of the affine matrix m times the
+      point (xs[c], ys[c], zs[c], 1). The bottom row is taken
+      to be 0 0 0 1. The out arrays may be the in arrays, to
+      move points in place.
+      ====================*/
+    public abstract void transform(double m00, double m01, double m02, double m03,
+				   double m10, double m11, double m12, double m13,
+				   double m20, double m21, double m22, double m23,
+				   double[] xs, double[] ys, double[] zs,
+				   double[] outX, double[] outY, double[] outZ,
+				   int from, int to);
+}
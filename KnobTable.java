@@ -0,0 +1,186 @@
+/*========== KnobTable.java ==========
+  The knobs of an animation and the vary commands that set
+  them. Each knob name is given a slot, numbered from 0 in the
+  order names are first seen, so a frame's knob values fit in
+  a plain double[], filled each frame by getValues (see
+  MDLReader.subProcess).
+
+  Nothing is worked out ahead of time: a knob's value for a
+  frame is found from its vary segments when it's asked for,
+  so the table holds one entry per vary command however many
+  frames there are.
+
+  A knob may be varied any number of times:
+  - inside a segment (start to end frame, both included) the
+    value goes in a straight line from its start to its end
+    value. Where segments overlap, the one later in the
+    script wins.
+  - between or after segments it holds the end value of the
+    segment that ended most recently.
+  - before every segment it holds the start value of the
+    earliest.
+  so a single vary does what it always did. A knob no vary
+  mentions is 1, which leaves what it scales alone.
+
+  Only read once it's been filled, so any number of threads can
+  share it.
+  =========================*/
+
+import java.util.*;
+
+public class KnobTable {
+
+    private ArrayList<String> names;
+    private HashMap<String, Integer> slots;
+    //each slot's first and last segment, -1 for none
+    private int[] head, tail;
+
+    //the segments, in the order they were added
+    private int[] startFrames, endFrames;
+    private double[] startVals, endVals;
+    //the slot's next segment, -1 for none
+    private int[] next;
+    private int numSegments;
+
+    public KnobTable() {
+	names = new ArrayList<String>();
+	slots = new HashMap<String, Integer>();
+	head = new int[0];
+	tail = new int[0];
+	startFrames = new int[0];
+	endFrames = new int[0];
+	startVals = new double[0];
+	endVals = new double[0];
+	next = new int[0];
+	numSegments = 0;
+    }
+
+    /*======== public int getSlot() ==========
+      Inputs:   String knob
+      Returns:  The slot for knob, which is given one if it
+                doesn't have one yet
+      ====================*/
+    public int getSlot(String knob) {
+	Integer slot = slots.get( knob );
+	if ( slot == null ) {
+	    slot = names.size();
+	    names.add( knob );
+	    slots.put( knob, slot );
+	    if ( slot >= head.length ) {
+		int n = Math.max( 8, 2 * head.length );
+		head = Arrays.copyOf( head, n );
+		tail = Arrays.copyOf( tail, n );
+	    }
+	    head[slot] = -1;
+	    tail[slot] = -1;
+	}
+	return slot;
+    }
+
+    /*======== public void addVary() ==========
+      Inputs:   String knob
+                int startFrame
+		int endFrame
+		double startVal
+		double endVal
+      Returns:
+      Adds a segment to knob, after any it already has. A
+      segment written backward (endFrame before startFrame)
+      is turned around.
+      ====================*/
+    public void addVary(String knob, int startFrame, int endFrame,
+			double startVal, double endVal) {
+
+	int slot = getSlot( knob );
+	if ( endFrame < startFrame ) {
+	    int f = startFrame; startFrame = endFrame; endFrame = f;
+	    double v = startVal; startVal = endVal; endVal = v;
+	}
+	if ( numSegments == next.length ) {
+	    int n = Math.max( 8, 2 * next.length );
+	    startFrames = Arrays.copyOf( startFrames, n );
+	    endFrames = Arrays.copyOf( endFrames, n );
+	    startVals = Arrays.copyOf( startVals, n );
+	    endVals = Arrays.copyOf( endVals, n );
+	    next = Arrays.copyOf( next, n );
+	}
+	int s = numSegments++;
+	startFrames[s] = startFrame;
+	endFrames[s] = endFrame;
+	startVals[s] = startVal;
+	endVals[s] = endVal;
+	next[s] = -1;
+	if ( tail[slot] < 0 )
+	    head[slot] = s;
+	else
+	    next[ tail[slot] ] = s;
+	tail[slot] = s;
+    }
+
+    /*======== public double getValue() ==========
+      Inputs:   int slot
+                int frame
+      Returns:  The value of the knob in slot for frame
+      ====================*/
+    public double getValue(int slot, int frame) {
+
+	int s = head[slot];
+	if ( s < 0 )
+	    return 1;
+
+	boolean inside = false;
+	double value = 0;
+	int lastEnd = Integer.MIN_VALUE, firstStart = Integer.MAX_VALUE;
+	double endVal = 0, startVal = 0;
+
+	for ( ; s >= 0; s = next[s] ) {
+	    int start = startFrames[s], end = endFrames[s];
+	    if ( frame >= start && frame <= end ) {
+		inside = true;
+		if ( end == start )
+		    value = endVals[s];
+		else
+		    value = startVals[s] + (endVals[s] - startVals[s]) *
+			((frame - start) / (double)(end - start));
+	    }
+	    else if ( end < frame && end >= lastEnd ) {
+		lastEnd = end;
+		endVal = endVals[s];
+	    }
+	    else if ( start > frame && start < firstStart ) {
+		firstStart = start;
+		startVal = startVals[s];
+	    }
+	}
+	if ( inside )
+	    return value;
+	if ( lastEnd != Integer.MIN_VALUE )
+	    return endVal;
+	return startVal;
+    }
+
+    /*======== public void getValues() ==========
+      Inputs:   int frame
+                double[] values
+      Returns:
+      Fills values[slot] with every knob's value for frame
+      ====================*/
+    public void getValues(int frame, double[] values) {
+	int n = Math.min( values.length, names.size() );
+	for ( int k = 0; k < n; k++ )
+	    values[k] = getValue( k, frame );
+    }
+
+    //true if some vary sets the knob in slot
+    public boolean isVaried(int slot) {
+	return head[slot] >= 0;
+    }
+
+    public int size() {
+	return names.size();
+    }
+
+    public String getName(int slot) {
+	return names.get( slot );
+    }
+}
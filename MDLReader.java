@@ -31,6 +31,10 @@
 		    current top of the origins stack, then
 		    call draw_polygons.
 
+  mesh: load the triangles in the given OBJ or binary STL
+        file (see MeshLoader, MeshCache), then draw them like
+	the solids above.
+
   line: create a line based on the provided values. Store 
         that in a temporary matrix, multiply it by the
 	current top of the origins stack, then call draw_lines.
@@ -40,25 +44,45 @@
   =========================*/
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.io.*;
-import java.awt.Color;
 
 import parser.*;
 import parseTables.*;
 
 public class  MDLReader {
 
+    //cyan, used for polygon edges in scanline mode
+    public static final int EDGE_COLOR = 0x00FFFF;
+    public static final int LINE_COLOR = 0xFFFFFF;
+    //how far, in pixels, spheres and tori may be off their surface
+    public static final double DEFAULT_TOLERANCE = 0.5;
+    //frames drawn at once, see setThreads
+    public static final int DEFAULT_THREADS = 1;
     ArrayList<opCode> opcodes;
     SymTab symbols;
-    ArrayList<LinkedList<VaryNode>> symTableTable;
+    KnobTable knobTable;
     Set<String> symKeys;
-    Stack<Matrix> origins;
+    TransformStack origins;
+    Program program;
+    double[] knobs;
     EdgeMatrix tmp;
+    EdgeMatrix corners;
+    Mat4 place;
+    double tolerance;
+    double[] bounds;
     Frame f;
     int numFrames;
     String baseName;
+    int threads;
+    ArrayList<MDLReader> workers;
 
     public MDLReader(ArrayList<opCode> o, SymTab s) {
+	this( o, s, Frame.XRES, Frame.YRES );
+    }
+
+    public MDLReader(ArrayList<opCode> o, SymTab s, int xres, int yres) {
 
 	opcodes = o;
 	symbols = s;
@@ -67,11 +91,69 @@ public class  MDLReader {
 	baseName = "frame";
 
 	tmp = new EdgeMatrix();
-	f = new Frame();
-	Matrix m = new Matrix(4);
-	m.ident();
-	origins = new Stack<Matrix>();
-	origins.push(m);
+	corners = new EdgeMatrix( 8 );
+	place = new Mat4();
+	tolerance = DEFAULT_TOLERANCE;
+	bounds = new double[6];
+	f = new Frame( xres, yres );
+	origins = new TransformStack();
+	threads = DEFAULT_THREADS;
+    }
+
+    /*======== private MDLReader() ==========
+      Inputs:   MDLReader r
+      Returns: 
+
+      A worker for drawing r's frames on another thread. It
+      shares r's ops, program and knob table, which nothing
+      changes once process has started, and has its own frame,
+      stack and scratch matrices so workers never touch each
+      other's.
+      ====================*/
+    private MDLReader(MDLReader r) {
+
+	this( r.opcodes, r.symbols, r.f.getXres(), r.f.getYres() );
+	numFrames = r.numFrames;
+	baseName = r.baseName;
+	tolerance = r.tolerance;
+	knobTable = r.knobTable;
+	program = r.program;
+	knobs = new double[ knobTable.size() ];
+	f.setRasterMode( r.f.getRasterMode() );
+	f.setIndexedOutput( r.f.isIndexedOutput() );
+	//the workers already keep the cores busy
+	f.setParallel( false );
+    }
+
+    /*======== public void setRasterMode()) ==========
+      Inputs:   int mode
+      Returns: 
+
+      Passes the polygon fill algorithm (Frame.RASTER_HALFSPACE
+      or Frame.RASTER_SCANLINE) on to the frame being drawn.
+      ====================*/
+    public void setRasterMode(int mode) {
+	f.setRasterMode( mode );
+    }
+
+    public void setIndexedOutput(boolean i) {
+	f.setIndexedOutput( i );
+    }
+
+    public void setTolerance(double t) {
+	tolerance = t;
+    }
+
+    /*======== public void setThreads()) ==========
+      Inputs:   int n
+      Returns: 
+
+      Sets how many animation frames are drawn at once, each
+      by its own worker (see renderFrames). 1 draws them one
+      after another in this reader.
+      ====================*/
+    public void setThreads(int n) {
+	threads = Math.max( 1, n );
     }
 
     public void printCommands() {
@@ -151,89 +233,24 @@ public class  MDLReader {
       Inputs:   
       Returns: 
 
-      In order to set the knobs for animation, we need to keep
-      a seaprate value for each knob for each frame. We can do
-      this by using an array of linked lists. Each array index
-      will correspond to a frame (eg. knobs[0] would be the first
-      frame, knobs[2] would be the 3rd frame and so on).
-
-      Sets this knobs array as the value of the public variable
-      symTableTable.
-      
-      Each index should contain a linked list of VaryNodes, each
-      node contains a knob name and a value (see VaryNode.java)
-
-      Go through the opcode ArrayList, and when you find vary, go 
-      from knobs[0] to knobs[frames-1] and add (or modify) the
-      vary_node corresponding to the given knob with the
-      appropirate value. 
+      In order to set the knobs for animation, we need a value
+      for each knob for each frame. Rather than keeping every
+      frame's values, each vary is added to the knob table
+      (see KnobTable), which works a knob's value out from its
+      varies when a frame asks for it. A knob may be varied
+      more than once, over ranges that overlap or not.
 
       05/17/12 09:55:29
       jdyrlandweaver
       ====================*/
     public void secondPass() {
-	Iterator<opCode> opIter= opcodes.iterator();
-	ArrayList<LinkedList<VaryNode>> knobs =
-	    new ArrayList<LinkedList<VaryNode>>();
-	for (int i=0;i<numFrames;i++)
-	    knobs.add(new LinkedList<VaryNode>());
-	opCode oc;
-	while(opIter.hasNext()){
-	    oc = opIter.next();
-	    if(oc instanceof opVary){
+	knobTable = new KnobTable();
+	for ( opCode oc : opcodes ) {
+	    if ( oc instanceof opVary ) {
 		opVary ov = (opVary)oc;
-		int startFrame = ov.getStartFrame();
-		int endFrame = ov.getEndFrame();
-		double startVal = ov.getStartVal();
-		double endVal = ov.getEndVal();
-		String knob = ov.getKnob();
-		VaryNode eg = new VaryNode(0,knob);
-		if(!varyNodeIsPresent(knobs,eg)){
-		    for(int i = 0; i < numFrames; i++){
-			VaryNode temp = new VaryNode(0,knob);
-			if(i<startFrame){
-			    temp.setValue(startVal);
-			}
-			else if(i<endFrame){
-			    double v;
-			    double extent = ((i-startFrame+0.0) / (endFrame - startFrame + 0.0));
-			    v = ((endVal - startVal) * extent) + startVal;
-			    temp.setValue(v);
-			}
-			else{
-			    temp.setValue(endVal);
-			}
-			knobs.get(i).add(temp);
-		    }
-		}
-		else{//?
-		    System.out.println("I HAVEN'T CODED THIS YET!!!");
-		    //only change the zone specified
-		}
-	    }
-	}
-	symTableTable = knobs;
-	//tidyPrint(knobs);
-    }
-    
-    public boolean varyNodeIsPresent(ArrayList<LinkedList<VaryNode>> arr, VaryNode v){
-	boolean out = false;
-	for(int i = 0; i < arr.size(); i++){
-	    if(arr.get(i).contains(v)){
-		out = true;
-		break;
-	    }
-	}
-	return out;
-    }
-
-    public void tidyPrint(ArrayList<LinkedList<VaryNode>> arr){
-	for(int i = 0; i < arr.size(); i++){
-	    String s = "index: "+i+" ";
-	    for(int j = 0; j < arr.get(i).size(); j++){
-		s += "\t"+arr.get(i).get(j).toString()+"\n";
+		knobTable.addVary( ov.getKnob(), ov.getStartFrame(), ov.getEndFrame(),
+				   ov.getStartVal(), ov.getEndVal() );
 	    }
-	    System.out.print(s);
 	}
     }
 
@@ -291,221 +308,314 @@ public class  MDLReader {
       jdyrlandweaver
       ====================*/
     public void subProcess(int frame) {
-	
-	double knobVal, xval, yval, zval;
-	
-	Iterator<opCode> i = opcodes.iterator();
-	opCode oc;
-	origins = new Stack<Matrix>();
-	Matrix m = new Matrix();
-	m.ident();
-	origins.push(m);
 
-	while (i.hasNext()) {
-	    
-	    oc = i.next();
-	    //String command = oc.getClass().getName();
-	    
-	    if ( oc instanceof opPush ) {
-		
-		m = origins.peek().copy();
-		origins.push( m );
-	    }
-	    
-	    else if ( oc instanceof opPop ) {
-		origins.pop();
-	    }
-	    
-	    else if ( oc instanceof opSphere ) {
-		
-		tmp.addSphere( ((opSphere)oc).getCenter()[0],
-			       ((opSphere)oc).getCenter()[1],
-			       ((opSphere)oc).getCenter()[2],
-			       ((opSphere)oc).getR());
-
-		tmp.matrixMult( origins.peek() );
-		f.drawPolygons( tmp, new Color( 0, 255, 255 ) );
-		tmp.clear();
-	    }
+	if ( program == null )
+	    compile();
+	knobTable.getValues( frame, knobs );
+	execute( program, knobs );
 
-	    else if ( oc instanceof opTorus ) {
-		
-		tmp.addTorus( ((opTorus)oc).getCenter()[0],
-			      ((opTorus)oc).getCenter()[1],
-			      ((opTorus)oc).getCenter()[2],
-			      ((opTorus)oc).getr(), 
-			      ((opTorus)oc).getR());
-		tmp.matrixMult( origins.peek() );
-		f.drawPolygons( tmp, new Color( 0, 255, 255 ) );
-		tmp.clear();
-	    }
-
-	    else if ( oc instanceof opBox ) {
-		
-		tmp.addBox( ((opBox)oc).getP1()[0],
-			    ((opBox)oc).getP1()[1],
-			    ((opBox)oc).getP1()[2],
-			    ((opBox)oc).getP2()[0],
-			    ((opBox)oc).getP2()[1],
-			    ((opBox)oc).getP2()[2] );
-
-		tmp.matrixMult( origins.peek() );
-		f.drawPolygons( tmp, new Color( 0, 255, 255 ) );
-		tmp.clear();
-	    }
-	    //transformations:
-	    else if(oc instanceof opTrans){
-		String knob = ((opTrans)oc).getKnob();
-		if(knob != null){
-		    if ( oc instanceof opMove )
-			opMoveRun((opMove)oc,knob,frame);
-		    else if ( oc instanceof opScale )
-			opScaleRun((opScale)oc,knob,frame);
-		    else if ( oc instanceof opRotate )
-			opRotateRun((opRotate)oc,knob,frame);
-		}
-		else{
-		    if ( oc instanceof opMove )
-			opMoveRun((opMove)oc);
-		    else if ( oc instanceof opScale )
-			opScaleRun((opScale)oc);
-		    else if ( oc instanceof opRotate )
-			opRotateRun((opRotate)oc);
-		}
-	    }	    
-	    // else if ( oc instanceof opSave ) {
-	    // 	f.save( ((opSave)oc).getName() );
-	    // }
-	}//end loop
 	String name = baseName + String.format("%03d",frame)+".png";
 	f.save("anim/"+name);
-	Matrix mat = new Matrix(4);
-	mat.ident();
-	origins = new Stack<Matrix>();
-	origins.push(mat);
-	f = new Frame();
-    }
-    
-    public void process(){
-	firstPass();
-	secondPass();
-	
-	if(numFrames > 1){
-	    for(int i = 0; i < numFrames; i++)
-		subProcess(i);
-	}
-	else{}
+	origins.clear();
+	f.clear();
     }
-    
-    
-    public void opMoveRun(opMove om){
-	Matrix t = new Matrix(4);
-	double xval = om.getValues()[0];
-	double yval = om.getValues()[1];
-	double zval = om.getValues()[2];
-	
-	t.makeTranslate( xval, yval, zval );
-	t.matrixMult( origins.peek() );
-	origins.pop();
-	origins.push( t );
+
+    /*======== public void compile()) ==========
+      Inputs:   
+      Returns: 
+
+      Decodes the op list into program (see Program) and makes
+      room for a value per knob in the knob table. Knobs that
+      transformations use but no vary sets are reported here,
+      once, and left at 1.
+      ====================*/
+    public void compile() {
+
+	if ( knobTable == null )
+	    knobTable = new KnobTable();
+	program = new Program( opcodes, knobTable );
+	knobs = new double[ knobTable.size() ];
+	for ( int k = 0; k < knobTable.size(); k++ )
+	    if ( !knobTable.isVaried( k ) )
+		System.out.println( "Knob not exists: " + knobTable.getName( k ) );
     }
-    public void opMoveRun(opMove om, String knob, int frame){
-	Matrix t = new Matrix(4);
-	double xval = om.getValues()[0];
-	double yval = om.getValues()[1];
-	double zval = om.getValues()[2];
-
-	int knobindex = symTableTable.get(frame).indexOf(new VaryNode(0,knob));
-	if(knobindex != -1){
-	    VaryNode v = symTableTable.get(frame).get(knobindex);
-	    xval = xval * (v.getValue());
-	    yval = yval * (v.getValue());
-	    zval = zval * (v.getValue());
-	    System.out.println("Moving: "+xval+", "+yval+", "+zval+"(knob="+v.getValue()+")");
+
+    /*======== public void execute()) ==========
+      Inputs:   Program p
+                double[] knobs
+      Returns: 
+
+      Runs p once, drawing into f, with knobs holding the value
+      of each of p's knob slots.
+      ====================*/
+    public void execute(Program p, double[] knobs) {
+
+	int[] ops = p.getOps();
+	int[] args = p.getArgs();
+	int[] slots = p.getKnobs();
+	double[] v = p.getValues();
+	int n = p.length();
+
+	for ( int pc = 0; pc < n; pc++ ) {
+
+	    int a = args[pc];
+	    double k = slots[pc] < 0 ? 1 : knobs[ slots[pc] ];
+
+	    switch ( ops[pc] ) {
+	    case Program.PUSH:
+		origins.push();
+		break;
+	    case Program.POP:
+		origins.pop();
+		break;
+	    case Program.MOVE:
+		origins.translate( v[a] * k, v[a+1] * k, v[a+2] * k );
+		break;
+	    case Program.SCALE:
+		origins.scale( v[a] * k, v[a+1] * k, v[a+2] * k );
+		break;
+	    case Program.ROTATE_X:
+		origins.rotate( 'x', v[a] * k );
+		break;
+	    case Program.ROTATE_Y:
+		origins.rotate( 'y', v[a] * k );
+		break;
+	    case Program.ROTATE_Z:
+		origins.rotate( 'z', v[a] * k );
+		break;
+	    case Program.SPHERE:
+		drawSphere( v[a], v[a+1], v[a+2], v[a+3] );
+		break;
+	    case Program.TORUS:
+		drawTorus( v[a], v[a+1], v[a+2], v[a+3], v[a+4] );
+		break;
+	    case Program.BOX:
+		drawBox( v[a], v[a+1], v[a+2], v[a+3], v[a+4], v[a+5] );
+		break;
+	    case Program.LINE:
+		drawLine( v[a], v[a+1], v[a+2], v[a+3], v[a+4], v[a+5] );
+		break;
+	    case Program.MESH:
+		drawMesh( p.getNames()[pc] );
+		break;
+	    }
 	}
-	else{System.out.println("Knob not exists (move)");}
-		       
-	t.makeTranslate( xval, yval, zval );
-	t.matrixMult( origins.peek() );
-	origins.pop();
-	origins.push( t );
     }
-    public void opScaleRun(opScale os){			
-	Matrix t = new Matrix(4);
-	double xval = os.getValues()[0];
-	double yval = os.getValues()[1];
-	double zval = os.getValues()[2];
-
-	t.makeScale( xval, yval, zval );
-	t.matrixMult( origins.peek() );
-	origins.pop();
-	origins.push( t );
+
+    /*======== shapes ==========
+      Each of these draws one shape in the current coordinate
+      system, after checking its bounding box can be seen.
+      ====================*/
+    public void drawSphere(double cx, double cy, double cz, double r) {
+
+	if ( isHidden( cx - r, cy - r, cz - r, cx + r, cy + r, cz + r ) )
+	    return;
+	TessellationCache.instance( origins.peek(), cx, cy, cz, r, place );
+	drawMesh( TessellationCache.sphere( lodStep( 1 ) ), r < 0 );
     }
-    public void opScaleRun(opScale os, String knob, int frame){
-	Matrix t = new Matrix(4);
-	double xval = os.getValues()[0];
-	double yval = os.getValues()[1];
-	double zval = os.getValues()[2];
 
-	int knobindex = symTableTable.get(frame).indexOf(new VaryNode(0,knob));
-	
-	if(knobindex != -1){
-	    VaryNode v = symTableTable.get(frame).get(knobindex);
-	    xval = xval * (v.getValue());
-	    yval = yval * (v.getValue());
-	    zval = zval * (v.getValue());
-	    System.out.println("Scaling: "+xval+", "+yval+", "+zval + "(knob="+v.getValue()+")");
+    //ring around the y axis: tube radius r, ring radius R
+    public void drawTorus(double cx, double cy, double cz, double r, double ring) {
+
+	double R = ring + r;
+	if ( isHidden( cx - R, cy - r, cz - R, cx + R, cy + r, cz + R ) )
+	    return;
+	//unit tori have ring radius 1, so scale by the ring
+	//radius unless there isn't one
+	if ( ring != 0 ) {
+	    double ratio = r / ring;
+	    TessellationCache.instance( origins.peek(), cx, cy, cz, ring, place );
+	    drawMesh( TessellationCache.torus( lodStep( 1 + Math.abs( ratio ) ),
+					       ratio ), ring < 0 );
 	}
-	else{
-	    System.out.println("Knob not exists (scale)");
+	else {
+	    TessellationCache.instance( origins.peek(), cx, cy, cz, r, place );
+	    drawMesh( TessellationCache.torus( lodStep( 1 ),
+					       Double.POSITIVE_INFINITY ), r < 0 );
 	}
-	
-	t.makeScale( xval, yval, zval );
-	t.matrixMult( origins.peek() );
-	origins.pop();
-	origins.push( t );
     }
-    public void opRotateRun(opRotate or){
-	double angle = or.getDeg() * (Math.PI / 180);
-	char axis = or.getAxis();
-	Matrix t = new Matrix(4);
-
-	if ( axis == 'x' )
-	    t.makeRotX( angle );
-	else if ( axis == 'y' )
-	    t.makeRotY( angle );
-	else
-	    t.makeRotZ( angle );
-	
-	t.matrixMult( origins.peek() );
-	origins.pop();
-	origins.push( t );
+
+    //addBox goes +width, +height and -depth from (x, y, z)
+    public void drawBox(double x, double y, double z,
+			double width, double height, double depth) {
+
+	if ( isHidden( x, y, z - depth, x + width, y + height, z ) )
+	    return;
+	tmp.addBox( x, y, z, width, height, depth );
+	tmp.matrixMult( origins.peek() );
+	f.drawPolygons( tmp, EDGE_COLOR, origins.isMirrored() );
+	tmp.clear();
+    }
+
+    public void drawLine(double x0, double y0, double z0,
+			 double x1, double y1, double z1) {
+	tmp.addEdge( x0, y0, z0, x1, y1, z1 );
+	tmp.matrixMult( origins.peek() );
+	f.drawLines( tmp, LINE_COLOR );
+	tmp.clear();
+    }
+
+    public void drawMesh(String filename) {
+
+	MeshCache.Entry e = MeshCache.getShared().get( filename );
+	if ( e.getMesh().getTriangleCount() == 0 )
+	    return;
+	double[] b = e.getBounds();
+	if ( isHidden( b[0], b[1], b[2], b[3], b[4], b[5] ) )
+	    return;
+	tmp.setTransformed( e.getMesh(), origins.peek() );
+	f.drawPolygons( tmp, EDGE_COLOR, origins.isMirrored() );
+	tmp.clear();
+    }
+
+    /*======== public void drawMesh()) ==========
+      Inputs:   EdgeMatrix unit
+                boolean flipped
+      Returns: 
+
+      Draws a unit mesh from TessellationCache moved by place,
+      which should already be set up by TessellationCache.instance
+      with the top of the origins stack and the shape's center
+      and size, so the points are only transformed once.
+      flipped is set when the size is negative, which mirrors
+      the shape on top of whatever the origins stack does.
+      ====================*/
+    public void drawMesh(EdgeMatrix unit, boolean flipped) {
+	tmp.setTransformed( unit, place );
+	f.drawPolygons( tmp, EDGE_COLOR, origins.isMirrored() != flipped );
+	tmp.clear();
     }
-    public void opRotateRun(opRotate or, String knob, int frame){
-	double angle = or.getDeg() * (Math.PI / 180);
-	char axis = or.getAxis();
-	Matrix t = new Matrix(4);
-
-	int knobindex = symTableTable.get(frame).indexOf(new VaryNode(0,knob));
-	if(knobindex != -1){
-	    VaryNode v = symTableTable.get(frame).get(knobindex);
-	    angle = angle * (v.getValue());
-	    if ( axis == 'x' )
-		t.makeRotX( angle );
-	    else if ( axis == 'y' )
-		t.makeRotY( angle );
-	    else if (axis == 'z' )
-		t.makeRotZ( angle );
-	    System.out.println("Rotating:"+axis+"-axis, "+angle+"radians"+"(knob="+v.getValue()+")");    
+
+    /*======== public double lodStep()) ==========
+      Inputs:   double extent
+      Returns:  The tessellation step for a unit mesh whose
+                biggest circle has radius extent, once it is
+		moved by place
+
+      The finer the shape is on screen, the more triangles it
+      gets, keeping the surface within tolerance pixels.
+      ====================*/
+    public double lodStep(double extent) {
+	return TessellationCache.step( extent * TessellationCache.screenRadius( place ),
+				       tolerance );
+    }
+
+    /*======== public boolean isHidden()) ==========
+      Inputs:   double x0
+                double y0
+		double z0
+		double x1
+		double y1
+		double z1
+      Returns:  true if the box from (x0, y0, z0) to (x1, y1, z1),
+                moved into the current coordinate system, can't
+		be seen
+
+      Used to skip generating a shape at all when its bounding
+      box is off screen or behind what has already been drawn.
+      ====================*/
+    public boolean isHidden(double x0, double y0, double z0,
+			    double x1, double y1, double z1) {
+	corners.clear();
+	corners.addEdge( x0, y0, z0, x1, y0, z0 );
+	corners.addEdge( x0, y1, z0, x1, y1, z0 );
+	corners.addEdge( x0, y0, z1, x1, y0, z1 );
+	corners.addEdge( x0, y1, z1, x1, y1, z1 );
+	corners.matrixMult( origins.peek() );
+	corners.getBounds( bounds );
+	return f.isHidden( bounds );
+    }
+
+    /*======== public void renderFrames()) ==========
+      Inputs:   
+      Returns: 
+
+      Draws every frame on a pool of threads workers, each
+      taking the next frame not yet drawn until there are none
+      left. Frames don't depend on each other once the knob
+      values are known, and each is saved under its own
+      number, so the files are the same as drawing them in
+      order. The workers' counts are added into this reader's
+      (see printStats).
+      ====================*/
+    public void renderFrames() {
+
+	int n = Math.min( threads, numFrames );
+	final AtomicInteger nextFrame = new AtomicInteger();
+	ExecutorService pool = Executors.newFixedThreadPool( n );
+	ArrayList<Future<MDLReader>> done = new ArrayList<Future<MDLReader>>();
+	for ( int w = 0; w < n; w++ ) {
+	    final MDLReader worker = new MDLReader( this );
+	    done.add( pool.submit( new Callable<MDLReader>() {
+		    public MDLReader call() {
+			int frame;
+			while ( (frame = nextFrame.getAndIncrement()) < numFrames )
+			    worker.subProcess( frame );
+			return worker;
+		    }
+		} ) );
 	}
-	else{
-	    System.out.println("Knob not exists (rotate)");
+	pool.shutdown();
+
+	workers = new ArrayList<MDLReader>();
+	try {
+	    for ( Future<MDLReader> d : done )
+		workers.add( d.get() );
+	}
+	catch ( InterruptedException e ) {
+	    pool.shutdownNow();
+	    Thread.currentThread().interrupt();
+	    throw new RuntimeException( e );
+	}
+	catch ( ExecutionException e ) {
+	    pool.shutdownNow();
+	    throw new RuntimeException( e.getCause() );
 	}
-	
-	t.matrixMult( origins.peek() );
-	origins.pop();
-	origins.push( t );
     }
+
+    public void process(){
+	firstPass();
+	secondPass();
+	compile();
 	
-    
+	if(numFrames > 1){
+	    if ( threads > 1 )
+		renderFrames();
+	    else
+		for(int i = 0; i < numFrames; i++)
+		    subProcess(i);
+	}
+	else{}
+	printStats();
+    }
+
+    /*======== public void printStats()) ==========
+      Inputs:   
+      Returns: 
+
+      Prints how much drawing was skipped and how the caches
+      did, over every frame and worker.
+      ====================*/
+    public void printStats() {
+
+	int occluded = f.getShapesOccluded();
+	int trisOccluded = f.getTrianglesOccluded();
+	int clipped = f.getShapesClipped();
+	if ( workers != null )
+	    for ( MDLReader w : workers ) {
+		occluded += w.f.getShapesOccluded();
+		trisOccluded += w.f.getTrianglesOccluded();
+		clipped += w.f.getShapesClipped();
+	    }
+	System.out.println( "Hidden: " + occluded + " shapes and " +
+			    trisOccluded + " triangles behind others, " +
+			    clipped + " shapes off screen" );
+	System.out.println( "Tessellated: " + TessellationCache.getTessellations() +
+			    " meshes" );
+	MeshCache mc = MeshCache.getShared();
+	System.out.println( "Mesh cache: " + mc.getHits() + " hits, " +
+			    mc.getMisses() + " misses, " + mc.getEvictions() +
+			    " evictions, " + (mc.getBytesUsed() >> 20) + "MB of " +
+			    (mc.getBudget() >> 20) + "MB" );
+    }
 }
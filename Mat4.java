@@ -0,0 +1,136 @@
+/*========== Mat4.java ==========
+  A 4x4 transformation matrix whose bottom row is always
+  0 0 0 1, which is true of every translate, scale and rotate
+  and anything made by multiplying them. The other 12 entries
+  are plain fields, mRC for row R and column C.
+
+  Everything works in place and nothing allocates, so the
+  coordinate system stack can be moved, scaled and rotated
+  as often as a script likes. The compose methods (translate,
+  scale, rotX ...) multiply on the right, this = this * op,
+  which is what the move, scale and rotate commands do to the
+  top of the stack.
+  =========================*/
+
+public final class Mat4 {
+
+    public double m00, m01, m02, m03;
+    public double m10, m11, m12, m13;
+    public double m20, m21, m22, m23;
+
+    //the identity
+    public Mat4() {
+	ident();
+    }
+
+    public Mat4(Mat4 n) {
+	set( n );
+    }
+
+    public void ident() {
+	m00 = 1; m01 = 0; m02 = 0; m03 = 0;
+	m10 = 0; m11 = 1; m12 = 0; m13 = 0;
+	m20 = 0; m21 = 0; m22 = 1; m23 = 0;
+    }
+
+    public void set(Mat4 n) {
+	m00 = n.m00; m01 = n.m01; m02 = n.m02; m03 = n.m03;
+	m10 = n.m10; m11 = n.m11; m12 = n.m12; m13 = n.m13;
+	m20 = n.m20; m21 = n.m21; m22 = n.m22; m23 = n.m23;
+    }
+
+    /*======== public void mult() ==========
+      Inputs:   Mat4 a
+                Mat4 b
+      Returns:
+      Sets this to a * b. Either may be this.
+      ====================*/
+    public void mult(Mat4 a, Mat4 b) {
+
+	double r00 = a.m00 * b.m00 + a.m01 * b.m10 + a.m02 * b.m20;
+	double r01 = a.m00 * b.m01 + a.m01 * b.m11 + a.m02 * b.m21;
+	double r02 = a.m00 * b.m02 + a.m01 * b.m12 + a.m02 * b.m22;
+	double r03 = a.m00 * b.m03 + a.m01 * b.m13 + a.m02 * b.m23 + a.m03;
+	double r10 = a.m10 * b.m00 + a.m11 * b.m10 + a.m12 * b.m20;
+	double r11 = a.m10 * b.m01 + a.m11 * b.m11 + a.m12 * b.m21;
+	double r12 = a.m10 * b.m02 + a.m11 * b.m12 + a.m12 * b.m22;
+	double r13 = a.m10 * b.m03 + a.m11 * b.m13 + a.m12 * b.m23 + a.m13;
+	double r20 = a.m20 * b.m00 + a.m21 * b.m10 + a.m22 * b.m20;
+	double r21 = a.m20 * b.m01 + a.m21 * b.m11 + a.m22 * b.m21;
+	double r22 = a.m20 * b.m02 + a.m21 * b.m12 + a.m22 * b.m22;
+	double r23 = a.m20 * b.m03 + a.m21 * b.m13 + a.m22 * b.m23 + a.m23;
+	m00 = r00; m01 = r01; m02 = r02; m03 = r03;
+	m10 = r10; m11 = r11; m12 = r12; m13 = r13;
+	m20 = r20; m21 = r21; m22 = r22; m23 = r23;
+    }
+
+    /*======== public void translate() ==========
+      Inputs:   double x
+                double y
+		double z
+      Returns:
+      this = this * translate(x, y, z), which only moves the
+      last column
+      ====================*/
+    public void translate(double x, double y, double z) {
+	m03 += m00 * x + m01 * y + m02 * z;
+	m13 += m10 * x + m11 * y + m12 * z;
+	m23 += m20 * x + m21 * y + m22 * z;
+    }
+
+    //this = this * scale(x, y, z), which scales the columns
+    public void scale(double x, double y, double z) {
+	m00 *= x; m01 *= y; m02 *= z;
+	m10 *= x; m11 *= y; m12 *= z;
+	m20 *= x; m21 *= y; m22 *= z;
+    }
+
+    /*======== public void rotX() ==========
+      Inputs:   double theta
+      Returns:
+      this = this * rotation by theta radians about x. Only
+      the two columns the rotation mixes change, and sin and
+      cos are taken once. rotY and rotZ are the same for
+      their axes, with the same signs as Matrix.makeRotY/Z.
+      ====================*/
+    public void rotX(double theta) {
+	double c = Math.cos( theta ), s = Math.sin( theta );
+	double t;
+	t = m01; m01 = t * c + m02 * s; m02 = m02 * c - t * s;
+	t = m11; m11 = t * c + m12 * s; m12 = m12 * c - t * s;
+	t = m21; m21 = t * c + m22 * s; m22 = m22 * c - t * s;
+    }
+
+    public void rotY(double theta) {
+	double c = Math.cos( theta ), s = Math.sin( theta );
+	double t;
+	t = m00; m00 = t * c + m02 * s; m02 = m02 * c - t * s;
+	t = m10; m10 = t * c + m12 * s; m12 = m12 * c - t * s;
+	t = m20; m20 = t * c + m22 * s; m22 = m22 * c - t * s;
+    }
+
+    public void rotZ(double theta) {
+	double c = Math.cos( theta ), s = Math.sin( theta );
+	double t;
+	t = m00; m00 = t * c + m01 * s; m01 = m01 * c - t * s;
+	t = m10; m10 = t * c + m11 * s; m11 = m11 * c - t * s;
+	t = m20; m20 = t * c + m21 * s; m21 = m21 * c - t * s;
+    }
+
+    //this = this * rotation by theta radians about axis x, y or z
+    public void rotate(char axis, double theta) {
+	if ( axis == 'x' )
+	    rotX( theta );
+	else if ( axis == 'y' )
+	    rotY( theta );
+	else
+	    rotZ( theta );
+    }
+
+    public String toString() {
+	return m00 + " " + m01 + " " + m02 + " " + m03 + "\n" +
+	    m10 + " " + m11 + " " + m12 + " " + m13 + "\n" +
+	    m20 + " " + m21 + " " + m22 + " " + m23 + "\n" +
+	    "0.0 0.0 0.0 1.0\n";
+    }
+}
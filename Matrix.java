@@ -102,17 +102,26 @@ public class Matrix {
 
 
     /*===========grow================
-      Increase the number of columns in a matrix by 10
-      You can change the growth factor as you see fit
+      Doubles the number of columns in a matrix (adding at
+      least 10), so filling a matrix one column at a time
+      only copies each column a constant number of times
     */
     public void grow() {
+	ensureCapacity( m[0].length + Math.max( 10, m[0].length ) );
+    }
+
+    /*===========ensureCapacity================
+      Makes sure the matrix has room for at least c columns.
+      When it has to grow it at least doubles, so reserving
+      room a shape at a time stays linear overall
+    */
+    public void ensureCapacity( int c ) {
 
-	double[][] n = new double[m.length][m[0].length + 10];
+	if ( c <= m[0].length )
+	    return;
+	c = Math.max( c, 2 * m[0].length );
 	for (int r=0; r<m.length; r++)
-	    for (int c=0; c<m[r].length; c++)
-		n[r][c] = m[r][c];
-	
-	m = n;
+	    m[r] = Arrays.copyOf( m[r], c );
     }
 
     /*======== public void clear() ==========
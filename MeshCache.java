@@ -0,0 +1,166 @@
+/*========== MeshCache.java ==========
+  Keeps the meshes loaded for mesh commands (see MeshLoader)
+  so a file drawn in every frame is only read once, within a
+  memory budget.
+
+  Files are keyed by their canonical path, modification time
+  and size, so an edited file is read again and two names for
+  the same file share one copy. When the meshes held go over
+  the budget, the ones used least recently are dropped. A mesh
+  bigger than the whole budget is loaded each time it's asked
+  for and never kept.
+
+  Each mesh is kept with its bounding box, worked out once when
+  it's loaded. Meshes handed out are shared and must not be
+  changed. The cache can be used from several threads at once.
+  =========================*/
+
+import java.io.*;
+import java.util.*;
+
+public class MeshCache {
+
+    public static final long DEFAULT_BUDGET = 256L << 20;
+
+    private static MeshCache shared = new MeshCache( DEFAULT_BUDGET );
+
+    private LinkedHashMap<Key, Entry> meshes;
+    private long budget, used;
+    private int hits, misses, evictions;
+
+    private static final class Key {
+	final String path;
+	final long modified, size;
+
+	Key(String path, long modified, long size) {
+	    this.path = path;
+	    this.modified = modified;
+	    this.size = size;
+	}
+	public boolean equals(Object o) {
+	    if ( !(o instanceof Key) )
+		return false;
+	    Key k = (Key)o;
+	    return path.equals( k.path ) && modified == k.modified && size == k.size;
+	}
+	public int hashCode() {
+	    return Objects.hash( path, modified, size );
+	}
+    }
+
+    /*========== Entry ==========
+      A loaded mesh and its bounds: minx, miny, minz, maxx,
+      maxy, maxz (see EdgeMatrix.getBounds). Neither may be
+      changed.
+      ====================*/
+    public static final class Entry {
+	private final EdgeMatrix mesh;
+	private final double[] bounds;
+
+	Entry(EdgeMatrix mesh) {
+	    this.mesh = mesh;
+	    bounds = new double[6];
+	    mesh.getBounds( bounds );
+	}
+	public EdgeMatrix getMesh() {
+	    return mesh;
+	}
+	public double[] getBounds() {
+	    return bounds;
+	}
+    }
+
+    public MeshCache(long budget) {
+	this.budget = budget;
+	meshes = new LinkedHashMap<Key, Entry>( 16, 0.75f, true );
+	used = 0;
+    }
+
+    //the cache MDLReader uses
+    public static MeshCache getShared() {
+	return shared;
+    }
+
+    /*======== public synchronized Entry get() ==========
+      Inputs:   String filename
+      Returns:  The mesh in filename, with its bounds
+
+      A file that can't be read gives an empty mesh, which is
+      cached like any other so the message is only printed once.
+      ====================*/
+    public synchronized Entry get(String filename) {
+
+	File file = new File( filename );
+	String path;
+	try {
+	    path = file.getCanonicalPath();
+	}
+	catch ( IOException e ) {
+	    path = file.getAbsolutePath();
+	}
+	Key k = new Key( path, file.lastModified(), file.length() );
+
+	Entry entry = meshes.get( k );
+	if ( entry != null ) {
+	    hits++;
+	    return entry;
+	}
+	misses++;
+	EdgeMatrix mesh;
+	try {
+	    mesh = MeshLoader.load( filename );
+	}
+	catch ( IOException e ) {
+	    System.out.println( "Couldn't load mesh " + filename + ": " +
+				e.getMessage() );
+	    mesh = new EdgeMatrix();
+	}
+
+	entry = new Entry( mesh );
+	long bytes = mesh.getBytes();
+	if ( bytes > budget )
+	    return entry;
+	used += bytes;
+	meshes.put( k, entry );
+	evict();
+	return entry;
+    }
+
+    /*======== public synchronized void setBudget() ==========
+      Inputs:   long bytes
+      Returns:
+      Sets how many bytes of meshes may be kept, dropping the
+      least recently used ones if that's already too many.
+      ====================*/
+    public synchronized void setBudget(long bytes) {
+	budget = bytes;
+	evict();
+    }
+
+    private void evict() {
+	Iterator<Entry> i = meshes.values().iterator();
+	while ( used > budget && i.hasNext() ) {
+	    used -= i.next().getMesh().getBytes();
+	    i.remove();
+	    evictions++;
+	}
+    }
+
+    /*======== accessors ==========
+      ====================*/
+    public synchronized long getBudget() {
+	return budget;
+    }
+    public synchronized long getBytesUsed() {
+	return used;
+    }
+    public synchronized int getHits() {
+	return hits;
+    }
+    public synchronized int getMisses() {
+	return misses;
+    }
+    public synchronized int getEvictions() {
+	return evictions;
+    }
+}
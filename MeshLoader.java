@@ -0,0 +1,379 @@
+/*========== MeshLoader.java ==========
+  Reads triangle meshes for the mesh command, from Wavefront
+  OBJ or binary STL files, into an EdgeMatrix of points and
+  triangles (see EdgeMatrix.addTriangle).
+
+  The file is memory mapped and parsed straight out of the
+  mapping, one byte at a time, so no Strings or per line
+  buffers are made and the only heap used is the mesh itself.
+
+  OBJ: v lines are points (w is ignored), f lines are faces.
+  Face corners may be written i, i/t, i/t/n or i//n, negative
+  indices count back from the last point, and faces with more
+  than 3 corners are split into a fan. Everything else is
+  skipped.
+
+  Binary STL: an 80 byte header, a little endian triangle
+  count, then 50 bytes per triangle. ASCII STL: solid, then
+  facets of 3 vertex lines each. STL repeats every corner
+  of every triangle, so identical corners are merged as they
+  are read, which usually cuts the points to be transformed
+  by about 6.
+
+  Both formats wind front faces counter-clockwise looking down
+  at them, where the polygons here go clockwise (see addBox),
+  so every triangle is flipped on the way in.
+  =========================*/
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+public class MeshLoader {
+
+    private static final int STL_HEADER = 84;
+    private static final int STL_TRIANGLE = 50;
+
+    /*======== public static EdgeMatrix load() ==========
+      Inputs:   String filename
+      Returns:  The mesh in filename
+
+      Files whose size is right for a binary STL are read as
+      one, other files starting with solid as ASCII STL, and
+      anything else as OBJ.
+      ====================*/
+    public static EdgeMatrix load(String filename) throws IOException {
+
+	RandomAccessFile file = new RandomAccessFile( filename, "r" );
+	try {
+	    FileChannel channel = file.getChannel();
+	    long size = channel.size();
+	    if ( size > Integer.MAX_VALUE )
+		throw new IOException( filename + " is too big to map" );
+	    MappedByteBuffer buf =
+		channel.map( FileChannel.MapMode.READ_ONLY, 0, size );
+	    buf.order( ByteOrder.LITTLE_ENDIAN );
+
+	    if ( size >= STL_HEADER &&
+		 size == STL_HEADER + STL_TRIANGLE * (buf.getInt( 80 ) & 0xFFFFFFFFL) )
+		return readStl( buf );
+	    ObjScanner in = new ObjScanner( buf );
+	    in.skipBlanks();
+	    if ( in.word( "solid" ) )
+		return readAsciiStl( in, filename );
+	    return readObj( buf, filename );
+	}
+	finally {
+	    file.close();
+	}
+    }
+
+    /*======== private static EdgeMatrix readStl() ==========
+      Inputs:   ByteBuffer buf
+      Returns:  The triangles in buf, with shared corners merged
+      ====================*/
+    private static EdgeMatrix readStl(ByteBuffer buf) {
+
+	int numTris = buf.getInt( 80 );
+	EdgeMatrix mesh = new EdgeMatrix( Math.max( 4, numTris / 2 ) );
+	mesh.ensureIndexCapacity( 3 * numTris );
+	PointTable points = new PointTable( mesh, numTris );
+
+	int p = STL_HEADER;
+	for ( int t = 0; t < numTris; t++, p += STL_TRIANGLE ) {
+	    //skip the normal
+	    int a = points.add( buf.getFloat( p + 12 ), buf.getFloat( p + 16 ),
+				buf.getFloat( p + 20 ) );
+	    int b = points.add( buf.getFloat( p + 24 ), buf.getFloat( p + 28 ),
+				buf.getFloat( p + 32 ) );
+	    int c = points.add( buf.getFloat( p + 36 ), buf.getFloat( p + 40 ),
+				buf.getFloat( p + 44 ) );
+	    mesh.addTriangle( a, c, b );
+	}
+	return mesh;
+    }
+
+    /*======== private static EdgeMatrix readObj() ==========
+      Inputs:   ByteBuffer buf
+                String filename
+      Returns:  The points and faces in buf
+      ====================*/
+    private static EdgeMatrix readObj(ByteBuffer buf, String filename)
+	throws IOException {
+
+	EdgeMatrix mesh = new EdgeMatrix( 1024 );
+	ObjScanner in = new ObjScanner( buf );
+	double[] v = new double[3];
+
+	while ( in.more() ) {
+	    in.skipBlanks();
+	    int c0 = in.peek( 0 ), c1 = in.peek( 1 );
+	    if ( c0 == 'v' && isBlank( c1 ) ) {
+		in.skip( 1 );
+		for ( int k = 0; k < 3; k++ )
+		    v[k] = in.number();
+		mesh.addPoint( v[0], v[1], v[2] );
+	    }
+	    else if ( c0 == 'f' && isBlank( c1 ) ) {
+		in.skip( 1 );
+		int first = 0, prev = 0;
+		for ( int n = 0; in.hasCorner(); n++ ) {
+		    int i = in.corner( mesh.getLastCol() );
+		    if ( i < 0 || i >= mesh.getLastCol() )
+			throw new IOException( filename + ": bad face index on line " +
+					       in.line() );
+		    if ( n == 0 )
+			first = i;
+		    else if ( n >= 2 )
+			mesh.addTriangle( first, i, prev );
+		    prev = i;
+		}
+	    }
+	    in.nextLine();
+	}
+	return mesh;
+    }
+
+    /*======== private static EdgeMatrix readAsciiStl() ==========
+      Inputs:   ObjScanner in, just past solid
+                String filename
+      Returns:  The triangles in in, with shared corners merged
+
+      Only vertex and endfacet lines matter; each facet must
+      have exactly 3 vertices.
+      ====================*/
+    private static EdgeMatrix readAsciiStl(ObjScanner in, String filename)
+	throws IOException {
+
+	EdgeMatrix mesh = new EdgeMatrix( 1024 );
+	PointTable points = new PointTable( mesh, 1024 );
+	int[] corners = new int[3];
+	int n = 0;
+
+	in.nextLine();
+	while ( in.more() ) {
+	    in.skipBlanks();
+	    if ( in.word( "vertex" ) ) {
+		if ( n == 3 )
+		    throw new IOException( filename + ": facet with more than 3 " +
+					   "vertices on line " + in.line() );
+		double x = in.number(), y = in.number(), z = in.number();
+		corners[n++] = points.add( (float)x, (float)y, (float)z );
+	    }
+	    else if ( in.word( "endfacet" ) ) {
+		if ( n != 3 )
+		    throw new IOException( filename + ": facet without 3 vertices " +
+					   "on line " + in.line() );
+		mesh.addTriangle( corners[0], corners[2], corners[1] );
+		n = 0;
+	    }
+	    in.nextLine();
+	}
+	return mesh;
+    }
+
+    private static boolean isBlank(int c) {
+	return c == ' ' || c == '\t';
+    }
+
+    /*========== ObjScanner ==========
+      Walks an OBJ file in a buffer a byte at a time, reading
+      numbers and face corners without making Strings.
+      ====================*/
+    private static class ObjScanner {
+
+	private static final double[] TENS = new double[ 23 ];
+	static {
+	    TENS[0] = 1;
+	    for ( int i = 1; i < TENS.length; i++ )
+		TENS[i] = TENS[i-1] * 10;
+	}
+
+	private ByteBuffer buf;
+	private int pos, end, line;
+
+	ObjScanner(ByteBuffer buf) {
+	    this.buf = buf;
+	    pos = 0;
+	    end = buf.limit();
+	    line = 1;
+	}
+
+	boolean more() {
+	    return pos < end;
+	}
+	int line() {
+	    return line;
+	}
+	int peek(int k) {
+	    return pos + k < end ? buf.get( pos + k ) : '\n';
+	}
+	void skip(int k) {
+	    pos += k;
+	}
+	void nextLine() {
+	    while ( pos < end && buf.get( pos ) != '\n' )
+		pos++;
+	    pos++;
+	    line++;
+	}
+	void skipBlanks() {
+	    while ( pos < end && isBlank( buf.get( pos ) ) )
+		pos++;
+	}
+
+	//reads w if it is the next word, true if it was
+	boolean word(String w) {
+	    int n = w.length();
+	    for ( int k = 0; k < n; k++ )
+		if ( peek( k ) != w.charAt( k ) )
+		    return false;
+	    if ( peek( n ) > ' ' )
+		return false;
+	    pos += n;
+	    return true;
+	}
+
+	//true if there is another corner before the end of the line
+	boolean hasCorner() {
+	    skipBlanks();
+	    int c = peek( 0 );
+	    return c == '-' || c == '+' || (c >= '0' && c <= '9');
+	}
+
+	/*reads one face corner and returns its point's column,
+	  given numPoints points so far. Only the point index is
+	  kept*/
+	int corner(int numPoints) {
+	    long i = integer();
+	    while ( pos < end && buf.get( pos ) > ' ' )
+		pos++;
+	    if ( i < 0 )
+		return (int)(numPoints + i);
+	    return (int)(i - 1);
+	}
+
+	private long integer() {
+	    boolean neg = false;
+	    int c = peek( 0 );
+	    if ( c == '-' || c == '+' ) {
+		neg = c == '-';
+		pos++;
+	    }
+	    long n = 0;
+	    while ( pos < end && (c = buf.get( pos )) >= '0' && c <= '9' ) {
+		n = n * 10 + (c - '0');
+		pos++;
+	    }
+	    return neg ? -n : n;
+	}
+
+	/*reads a number like -1.25e-3. Up to 18 significant digits
+	  are kept, which is more than a double holds*/
+	double number() {
+	    skipBlanks();
+	    boolean neg = false;
+	    int c = peek( 0 );
+	    if ( c == '-' || c == '+' ) {
+		neg = c == '-';
+		pos++;
+	    }
+	    long mant = 0;
+	    int digits = 0, exp = 0;
+	    boolean point = false;
+	    for ( ; pos < end; pos++ ) {
+		c = buf.get( pos );
+		if ( c == '.' && !point )
+		    point = true;
+		else if ( c >= '0' && c <= '9' ) {
+		    if ( digits < 18 ) {
+			mant = mant * 10 + (c - '0');
+			if ( mant != 0 )
+			    digits++;
+			if ( point )
+			    exp--;
+		    }
+		    else if ( !point )
+			exp++;
+		}
+		else
+		    break;
+	    }
+	    c = peek( 0 );
+	    if ( c == 'e' || c == 'E' ) {
+		pos++;
+		exp += (int)integer();
+	    }
+	    double d = mant;
+	    if ( exp < 0 )
+		d = -exp < TENS.length ? d / TENS[-exp] : d * Math.pow( 10, exp );
+	    else if ( exp > 0 )
+		d = exp < TENS.length ? d * TENS[exp] : d * Math.pow( 10, exp );
+	    return neg ? -d : d;
+	}
+    }
+
+    /*========== PointTable ==========
+      Open addressing hash set of the points in a mesh, so each
+      distinct (x, y, z) is only added once. Slots hold a point's
+      column plus 1, 0 for empty; coordinates are compared
+      against the mesh itself.
+      ====================*/
+    private static class PointTable {
+
+	private EdgeMatrix mesh;
+	private int[] slots;
+	private int count;
+
+	PointTable(EdgeMatrix mesh, int expected) {
+	    this.mesh = mesh;
+	    int n = 16;
+	    while ( n < 2 * expected )
+		n <<= 1;
+	    slots = new int[ n ];
+	    count = 0;
+	}
+
+	int add(float x, float y, float z) {
+
+	    int mask = slots.length - 1;
+	    int h = hash( x, y, z ) & mask;
+	    for ( ; slots[h] != 0; h = (h + 1) & mask ) {
+		int c = slots[h] - 1;
+		if ( mesh.getX( c ) == x && mesh.getY( c ) == y && mesh.getZ( c ) == z )
+		    return c;
+	    }
+	    int c = mesh.getLastCol();
+	    mesh.addPoint( x, y, z );
+	    slots[h] = c + 1;
+	    if ( ++count * 2 > slots.length )
+		rehash();
+	    return c;
+	}
+
+	private void rehash() {
+	    int[] old = slots;
+	    slots = new int[ old.length * 2 ];
+	    int mask = slots.length - 1;
+	    for ( int i = 0; i < old.length; i++ ) {
+		if ( old[i] == 0 )
+		    continue;
+		int c = old[i] - 1;
+		int h = hash( (float)mesh.getX( c ), (float)mesh.getY( c ),
+			      (float)mesh.getZ( c ) ) & mask;
+		while ( slots[h] != 0 )
+		    h = (h + 1) & mask;
+		slots[h] = old[i];
+	    }
+	}
+
+	private static int hash(float x, float y, float z) {
+	    //+ 0.0f so -0 and 0 hash alike, as they compare equal
+	    int h = Float.floatToIntBits( x + 0.0f );
+	    h = h * 31 + Float.floatToIntBits( y + 0.0f );
+	    h = h * 31 + Float.floatToIntBits( z + 0.0f );
+	    return h ^ (h >>> 16);
+	}
+    }
+}
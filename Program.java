@@ -0,0 +1,160 @@
+/*========== Program.java ==========
+  The drawing commands of an op list, decoded once so each
+  frame can run them without looking at the opCodes again.
+
+  Instruction i is ops[i] (one of the constants below), with
+  its numbers starting at values[args[i]]:
+
+  PUSH, POP             none
+  MOVE, SCALE           x y z
+  ROTATE_X, _Y, _Z      angle in radians
+  SPHERE                cx cy cz r
+  TORUS                 cx cy cz r R  (tube, ring)
+  BOX                   x y z width height depth
+  LINE                  x0 y0 z0 x1 y1 z1
+  MESH                  none, names[i] is the file
+
+  knobs[i] is the slot (see KnobTable) of the knob that scales
+  a transformation's numbers, or -1 for none.
+
+  Ops that don't draw anything (frames, basename, vary ...)
+  are left out.
+  =========================*/
+
+import java.util.*;
+
+import parseTables.*;
+
+public class Program {
+
+    public static final int PUSH = 0;
+    public static final int POP = 1;
+    public static final int MOVE = 2;
+    public static final int SCALE = 3;
+    public static final int ROTATE_X = 4;
+    public static final int ROTATE_Y = 5;
+    public static final int ROTATE_Z = 6;
+    public static final int SPHERE = 7;
+    public static final int TORUS = 8;
+    public static final int BOX = 9;
+    public static final int LINE = 10;
+    public static final int MESH = 11;
+
+    private int[] ops, args, knobs;
+    private String[] names;
+    private double[] values;
+    private int length, numValues;
+    private KnobTable table;
+
+    /*======== public Program() ==========
+      Inputs:   List<opCode> opcodes
+                KnobTable table
+      Returns:
+      Decodes opcodes, giving any knob table doesn't have yet
+      a slot in it.
+      ====================*/
+    public Program(List<opCode> opcodes, KnobTable table) {
+
+	int n = opcodes.size();
+	ops = new int[n];
+	args = new int[n];
+	knobs = new int[n];
+	names = new String[n];
+	values = new double[6 * n];
+	length = 0;
+	numValues = 0;
+	this.table = table;
+
+	for ( opCode oc : opcodes )
+	    compile( oc );
+	values = Arrays.copyOf( values, numValues );
+    }
+
+    private void compile(opCode oc) {
+
+	String knob = null;
+	if ( oc instanceof opTrans )
+	    knob = ((opTrans)oc).getKnob();
+
+	if ( oc instanceof opPush )
+	    add( PUSH, null );
+	else if ( oc instanceof opPop )
+	    add( POP, null );
+	else if ( oc instanceof opMove ) {
+	    add( MOVE, knob );
+	    values( ((opMove)oc).getValues(), 3 );
+	}
+	else if ( oc instanceof opScale ) {
+	    add( SCALE, knob );
+	    values( ((opScale)oc).getValues(), 3 );
+	}
+	else if ( oc instanceof opRotate ) {
+	    char axis = ((opRotate)oc).getAxis();
+	    add( axis == 'x' ? ROTATE_X : axis == 'y' ? ROTATE_Y : ROTATE_Z, knob );
+	    value( ((opRotate)oc).getDeg() * (Math.PI / 180) );
+	}
+	else if ( oc instanceof opSphere ) {
+	    add( SPHERE, null );
+	    values( ((opSphere)oc).getCenter(), 3 );
+	    value( ((opSphere)oc).getR() );
+	}
+	else if ( oc instanceof opTorus ) {
+	    add( TORUS, null );
+	    values( ((opTorus)oc).getCenter(), 3 );
+	    value( ((opTorus)oc).getr() );
+	    value( ((opTorus)oc).getR() );
+	}
+	else if ( oc instanceof opBox ) {
+	    add( BOX, null );
+	    values( ((opBox)oc).getP1(), 3 );
+	    values( ((opBox)oc).getP2(), 3 );
+	}
+	else if ( oc instanceof opLine ) {
+	    add( LINE, null );
+	    values( ((opLine)oc).getP1(), 3 );
+	    values( ((opLine)oc).getP2(), 3 );
+	}
+	else if ( oc instanceof opMesh ) {
+	    add( MESH, null );
+	    names[length - 1] = ((opMesh)oc).getFilename();
+	}
+    }
+
+    private void add(int op, String knob) {
+	ops[length] = op;
+	args[length] = numValues;
+	knobs[length] = knob == null ? -1 : table.getSlot( knob );
+	length++;
+    }
+
+    private void value(double d) {
+	values[numValues++] = d;
+    }
+
+    private void values(double[] d, int n) {
+	for ( int i = 0; i < n; i++ )
+	    value( d[i] );
+    }
+
+    /*======== accessors ==========
+      The arrays are the program itself, not copies.
+      ====================*/
+    public int length() {
+	return length;
+    }
+    public int[] getOps() {
+	return ops;
+    }
+    public int[] getArgs() {
+	return args;
+    }
+    public int[] getKnobs() {
+	return knobs;
+    }
+    public double[] getValues() {
+	return values;
+    }
+    public String[] getNames() {
+	return names;
+    }
+}
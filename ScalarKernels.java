@@ -0,0 +1,37 @@
+/*========== ScalarKernels.java ==========
+  Plain java versions of the Kernels loops, used whenever the
+  Vector API isn't available.
+  =========================*/
+
+public class ScalarKernels extends Kernels {
+
+    public void fillSpan(float[] zbuffer, int[] pixels,
+			 int start, int count,
+			 double z, double dz, int rgb) {
+
+	for ( int k = 0; k < count; k++ ) {
+	    float d = (float)(z + k * dz);
+	    if ( zbuffer[start + k] <= d ) {
+		zbuffer[start + k] = d;
+		pixels[start + k] = rgb;
+	    }
+	}
+    }
+
+    public void transform(double m00, double m01, double m02, double m03,
+			  double m10, double m11, double m12, double m13,
+			  double m20, double m21, double m22, double m23,
+			  double[] xs, double[] ys, double[] zs,
+			  double[] outX, double[] outY, double[] outZ,
+			  int from, int to) {
+
+	for ( int c = from; c < to; c++ ) {
+	    double x = xs[c];
+	    double y = ys[c];
+	    double z = zs[c];
+	    outX[c] = m00 * x + m01 * y + m02 * z + m03;
+	    outY[c] = m10 * x + m11 * y + m12 * z + m13;
+	    outZ[c] = m20 * x + m21 * y + m22 * z + m23;
+	}
+    }
+}
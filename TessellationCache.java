@@ -0,0 +1,214 @@
+/*========== TessellationCache.java ==========
+  Spheres and tori only differ by where they are and how big
+  they are, so their points and triangles are only generated
+  once per tessellation step, around the origin at unit size.
+  Each sphere or torus command then copies the unit mesh and
+  moves it into place with one transform (see instance).
+
+  A unit sphere has radius 1. A unit torus has ring radius 1
+  and tube radius ratio = r / R, so there is one per ratio. A
+  torus with no ring uses ratio infinity, which has tube radius
+  1 and ring radius 0.
+
+  How fine a mesh is depends on how big it ends up on screen
+  (see step): the flat triangles may be at most a given number
+  of pixels off the true surface. Segment counts are rounded
+  up to a multiple of SEGMENT_ROUND so there are only a few
+  levels to cache.
+
+  Meshes are kept within a byte budget, the ones used least
+  recently being dropped first, since every torus ratio and
+  size on screen can need its own mesh.
+
+  Meshes handed out are shared and must not be changed. The
+  cache can be used from several threads at once.
+  =========================*/
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+public class TessellationCache {
+
+    public static final int MIN_SEGMENTS = 8;
+    public static final int MAX_SEGMENTS = 100;
+    public static final int SEGMENT_ROUND = 4;
+
+    private static final int SPHERE = 0;
+    private static final int TORUS = 1;
+
+    public static final long DEFAULT_BUDGET = 32L << 20;
+
+    //guarded by itself
+    private static final LinkedHashMap<Key, EdgeMatrix> meshes =
+	new LinkedHashMap<Key, EdgeMatrix>( 16, 0.75f, true );
+    private static long budget = DEFAULT_BUDGET, used;
+    private static final AtomicInteger tessellations = new AtomicInteger();
+
+    private static final class Key {
+	final int kind;
+	final double step, ratio;
+
+	Key(int kind, double step, double ratio) {
+	    this.kind = kind;
+	    this.step = step;
+	    this.ratio = ratio;
+	}
+	public boolean equals(Object o) {
+	    if ( !(o instanceof Key) )
+		return false;
+	    Key k = (Key)o;
+	    return kind == k.kind &&
+		Double.compare( step, k.step ) == 0 &&
+		Double.compare( ratio, k.ratio ) == 0;
+	}
+	public int hashCode() {
+	    return Objects.hash( kind, step, ratio );
+	}
+    }
+
+    /*======== public static EdgeMatrix sphere() ==========
+      Inputs:   double step
+      Returns:  The unit sphere for step
+      ====================*/
+    public static EdgeMatrix sphere(double step) {
+
+	Key k = new Key( SPHERE, step, 0 );
+	EdgeMatrix mesh = lookup( k );
+	if ( mesh == null ) {
+	    mesh = new EdgeMatrix();
+	    mesh.addSphere( 0, 0, 0, 1, step );
+	    mesh = cache( k, mesh );
+	}
+	return mesh;
+    }
+
+    /*======== public static EdgeMatrix torus() ==========
+      Inputs:   double step
+                double ratio
+      Returns:  The torus with ring radius 1 and tube radius
+                ratio (or tube radius 1 and no ring if ratio
+		is infinite) for step
+      ====================*/
+    public static EdgeMatrix torus(double step, double ratio) {
+
+	Key k = new Key( TORUS, step, ratio );
+	EdgeMatrix mesh = lookup( k );
+	if ( mesh == null ) {
+	    mesh = new EdgeMatrix();
+	    if ( Double.isInfinite( ratio ) )
+		mesh.addTorus( 0, 0, 0, 1, 0, step );
+	    else
+		mesh.addTorus( 0, 0, 0, ratio, 1, step );
+	    mesh = cache( k, mesh );
+	}
+	return mesh;
+    }
+
+    private static EdgeMatrix lookup(Key k) {
+	synchronized ( meshes ) {
+	    return meshes.get( k );
+	}
+    }
+
+    //two threads may build the same mesh, only one is kept
+    private static EdgeMatrix cache(Key k, EdgeMatrix mesh) {
+	tessellations.incrementAndGet();
+	synchronized ( meshes ) {
+	    EdgeMatrix old = meshes.get( k );
+	    if ( old != null )
+		return old;
+	    long bytes = mesh.getBytes();
+	    if ( bytes > budget )
+		return mesh;
+	    meshes.put( k, mesh );
+	    used += bytes;
+	    evict();
+	}
+	return mesh;
+    }
+
+    /*======== public static void setBudget() ==========
+      Inputs:   long bytes
+      Returns:
+      Sets how many bytes of meshes may be kept, dropping the
+      least recently used ones if that's already too many.
+      ====================*/
+    public static void setBudget(long bytes) {
+	synchronized ( meshes ) {
+	    budget = bytes;
+	    evict();
+	}
+    }
+
+    private static void evict() {
+	Iterator<EdgeMatrix> i = meshes.values().iterator();
+	while ( used > budget && i.hasNext() ) {
+	    used -= i.next().getBytes();
+	    i.remove();
+	}
+    }
+
+    /*======== public static void instance() ==========
+      Inputs:   Mat4 t
+                double cx
+		double cy
+		double cz
+		double s
+		Mat4 place
+      Returns:
+
+      Sets place to t * translate(cx, cy, cz) * scale(s), the
+      transform that takes a unit mesh to a shape of size s
+      at (cx, cy, cz) in t's coordinate system.
+      ====================*/
+    public static void instance(Mat4 t, double cx, double cy, double cz,
+				double s, Mat4 place) {
+	place.set( t );
+	place.translate( cx, cy, cz );
+	place.scale( s, s, s );
+    }
+
+    /*======== public static double screenRadius() ==========
+      Inputs:   Mat4 place
+      Returns:  How many pixels long a unit vector can get, in
+                x and y, after being moved by place
+
+      This is the largest singular value of the top left 2x3
+      of place, the square root of the biggest eigenvalue of
+      that times its transpose.
+      ====================*/
+    public static double screenRadius(Mat4 p) {
+
+	double a = p.m00 * p.m00 + p.m01 * p.m01 + p.m02 * p.m02;
+	double b = p.m00 * p.m10 + p.m01 * p.m11 + p.m02 * p.m12;
+	double c = p.m10 * p.m10 + p.m11 * p.m11 + p.m12 * p.m12;
+	double h = (a - c) / 2;
+	return Math.sqrt( (a + c) / 2 + Math.sqrt( h * h + b * b ) );
+    }
+
+    /*======== public static double step() ==========
+      Inputs:   double radius
+                double tolerance
+      Returns:  The tessellation step for a circle radius pixels
+                across, so no chord is more than tolerance
+		pixels inside it
+
+      A chord spanning angle a sits radius * (1 - cos(a/2))
+      inside the circle. Sphere and torus steps are a fraction
+      of a full turn.
+      ====================*/
+    public static double step(double radius, double tolerance) {
+
+	int n = MIN_SEGMENTS;
+	if ( tolerance > 0 && radius > tolerance )
+	    n = (int)Math.ceil( Math.PI / Math.acos( 1 - tolerance / radius ) );
+	n = (n + SEGMENT_ROUND - 1) / SEGMENT_ROUND * SEGMENT_ROUND;
+	n = Math.max( MIN_SEGMENTS, Math.min( MAX_SEGMENTS, n ) );
+	return 1.0 / n;
+    }
+
+    /*returns how many meshes have been generated so far*/
+    public static int getTessellations() {
+	return tessellations.get();
+    }
+}
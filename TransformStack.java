@@ -0,0 +1,133 @@
+/*========== TransformStack.java ==========
+  The coordinate system stack for MDLReader. Each level holds
+  the whole composed transform for that level, as a Mat4.
+
+  The levels are a plain array that grows as needed and are
+  reused between frames, so nothing is allocated once the
+  stack has been as deep as a script goes. Push doesn't copy
+  anything: the new level just points at the level below for
+  its matrix, and only gets a copy of its own the first time
+  it is moved, scaled or rotated. A push, some shapes and a
+  pop with no transform in between costs next to nothing.
+
+  The determinant of the top left 3x3 is worked out the first
+  time it's asked for and kept with the matrix until it
+  changes, so every shape drawn in the same coordinate system
+  shares it. A negative determinant means the transform is a
+  mirror image, which turns triangles inside out.
+
+  Not safe to share between threads; each renderer has its own.
+  =========================*/
+
+import java.util.*;
+
+public class TransformStack {
+
+    private Mat4[] mats;
+    //the level whose matrix level i is using
+    private int[] source;
+    private double[] dets;
+    private boolean[] detValid;
+    private int depth;
+
+    public TransformStack() {
+	mats = new Mat4[0];
+	source = new int[0];
+	dets = new double[0];
+	detValid = new boolean[0];
+	ensureDepth( 16 );
+	clear();
+    }
+
+    private void ensureDepth(int n) {
+	if ( n <= mats.length )
+	    return;
+	int old = mats.length;
+	n = Math.max( n, 2 * old );
+	mats = Arrays.copyOf( mats, n );
+	source = Arrays.copyOf( source, n );
+	dets = Arrays.copyOf( dets, n );
+	detValid = Arrays.copyOf( detValid, n );
+	for ( int i = old; i < n; i++ )
+	    mats[i] = new Mat4();
+    }
+
+    /*======== public void clear() ==========
+      Inputs:
+      Returns:
+      Back to a single level holding the identity
+      ====================*/
+    public void clear() {
+	depth = 0;
+	source[0] = 0;
+	mats[0].ident();
+	detValid[0] = false;
+    }
+
+    public void push() {
+	ensureDepth( depth + 2 );
+	depth++;
+	source[depth] = source[depth - 1];
+    }
+
+    public void pop() {
+	if ( depth == 0 )
+	    throw new EmptyStackException();
+	depth--;
+    }
+
+    public int getDepth() {
+	return depth;
+    }
+
+    /*======== public Mat4 peek() ==========
+      Inputs:
+      Returns:  The transform for the current level
+
+      It may be shared with levels below, so don't change it;
+      use translate, scale and rotate.
+      ====================*/
+    public Mat4 peek() {
+	return mats[ source[depth] ];
+    }
+
+    //the current level's own matrix, copied in on first use
+    private Mat4 edit() {
+	int s = source[depth];
+	if ( s != depth ) {
+	    mats[depth].set( mats[s] );
+	    source[depth] = depth;
+	}
+	detValid[depth] = false;
+	return mats[depth];
+    }
+
+    public void translate(double x, double y, double z) {
+	edit().translate( x, y, z );
+    }
+
+    public void scale(double x, double y, double z) {
+	edit().scale( x, y, z );
+    }
+
+    public void rotate(char axis, double theta) {
+	edit().rotate( axis, theta );
+    }
+
+    public double getDeterminant() {
+	int s = source[depth];
+	if ( !detValid[s] ) {
+	    Mat4 a = mats[s];
+	    dets[s] = a.m00 * (a.m11 * a.m22 - a.m12 * a.m21) +
+		a.m01 * (a.m12 * a.m20 - a.m10 * a.m22) +
+		a.m02 * (a.m10 * a.m21 - a.m11 * a.m20);
+	    detValid[s] = true;
+	}
+	return dets[s];
+    }
+
+    //true if the current level turns shapes inside out
+    public boolean isMirrored() {
+	return getDeterminant() < 0;
+    }
+}
@@ -0,0 +1,88 @@
+/*========== VectorKernels.java ==========
+  SIMD versions of the Kernels loops using jdk.incubator.vector.
+  Only compiles and loads with --add-modules jdk.incubator.vector;
+  Kernels.get() falls back to ScalarKernels otherwise.
+
+  Spans work a double vector at a time: each depth is worked
+  out in double, z + i * dz as in ScalarKernels, and only then
+  narrowed to float, so both make the same depth test
+  decisions. The float depth and int color lanes are half the
+  width of the doubles, one lane per double, so the depth test
+  mask can be reused for the color store. Leftovers past the
+  last full vector use the same formula one at a time.
+  =========================*/
+
+import jdk.incubator.vector.*;
+
+public class VectorKernels extends Kernels {
+
+    private static final VectorSpecies<Double> DS = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorShape HALF =
+	VectorShape.forBitSize( DS.vectorBitSize() / 2 );
+    private static final VectorSpecies<Float> FS = VectorSpecies.of( float.class, HALF );
+    private static final VectorSpecies<Integer> IS = VectorSpecies.of( int.class, HALF );
+
+    private final DoubleVector iota;
+    private final ScalarKernels tail;
+
+    public VectorKernels() {
+
+	//not worth it (and probably not intrinsified) below 128 bits
+	if ( DS.length() < 4 )
+	    throw new UnsupportedOperationException( "no usable SIMD width" );
+
+	double[] lanes = new double[ DS.length() ];
+	for ( int i = 0; i < lanes.length; i++ )
+	    lanes[i] = i;
+	iota = DoubleVector.fromArray( DS, lanes, 0 );
+	tail = new ScalarKernels();
+    }
+
+    public void fillSpan(float[] zbuffer, int[] pixels,
+			 int start, int count,
+			 double z, double dz, int rgb) {
+
+	int n = DS.loopBound( count );
+	IntVector color = IntVector.broadcast( IS, rgb );
+	//each lane's k, exact in double
+	DoubleVector k = iota;
+	double width = DS.length();
+
+	for ( int i = start; i < start + n; i += DS.length() ) {
+	    FloatVector zv = (FloatVector)k.mul( dz ).add( z )
+		.convertShape( VectorOperators.D2F, FS, 0 );
+	    FloatVector old = FloatVector.fromArray( FS, zbuffer, i );
+	    VectorMask<Float> pass = old.compare( VectorOperators.LE, zv );
+	    zv.intoArray( zbuffer, i, pass );
+	    color.intoArray( pixels, i, pass.cast(IS) );
+	    k = k.add( width );
+	}
+	for ( int j = n; j < count; j++ ) {
+	    float d = (float)(z + j * dz);
+	    if ( zbuffer[start + j] <= d ) {
+		zbuffer[start + j] = d;
+		pixels[start + j] = rgb;
+	    }
+	}
+    }
+
+    public void transform(double m00, double m01, double m02, double m03,
+			  double m10, double m11, double m12, double m13,
+			  double m20, double m21, double m22, double m23,
+			  double[] xs, double[] ys, double[] zs,
+			  double[] outX, double[] outY, double[] outZ,
+			  int from, int to) {
+
+	int end = from + DS.loopBound( to - from );
+	for ( int c = from; c < end; c += DS.length() ) {
+	    DoubleVector x = DoubleVector.fromArray( DS, xs, c );
+	    DoubleVector y = DoubleVector.fromArray( DS, ys, c );
+	    DoubleVector z = DoubleVector.fromArray( DS, zs, c );
+	    x.mul(m00).add( y.mul(m01) ).add( z.mul(m02) ).add( m03 ).intoArray( outX, c );
+	    x.mul(m10).add( y.mul(m11) ).add( z.mul(m12) ).add( m13 ).intoArray( outY, c );
+	    x.mul(m20).add( y.mul(m21) ).add( z.mul(m22) ).add( m23 ).intoArray( outZ, c );
+	}
+	tail.transform( m00, m01, m02, m03, m10, m11, m12, m13,
+			m20, m21, m22, m23, xs, ys, zs, outX, outY, outZ, end, to );
+    }
+}
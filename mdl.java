@@ -8,16 +8,61 @@ import parseTables.*;
 
 public class mdl 
 {
+  public static final String USAGE =
+      "usage: mdl [-res WIDTHxHEIGHT] [-raster halfspace|scanline] [-indexed]\n" +
+      "           [-tolerance PIXELS] [-meshcache MB] [-transformthreshold POINTS]\n" +
+      "           [-threads N] [file]";
+
+  public static void usage()
+    {
+	System.out.println( USAGE );
+	System.exit( 1 );
+    }
+
   public static void main(String args[]) throws ParseException 
     {
 	ArrayList a;	
 	SymTab s;
 	MdlParser parser;
-	String file;
-	if ( args.length == 1 )
-	    file = args[0];
-	else
-	    file = "test.mdl";
+	String file = "test.mdl";
+	int xres = Frame.XRES;
+	int yres = Frame.YRES;
+	int rasterMode = Frame.RASTER_HALFSPACE;
+	boolean indexed = false;
+	double tolerance = MDLReader.DEFAULT_TOLERANCE;
+	int threads = MDLReader.DEFAULT_THREADS;
+
+	for ( int i = 0; i < args.length; i++ ) {
+	    if ( args[i].equals("-res") ) {
+		//two whole numbers over 0, small enough for an int
+		if ( i + 1 >= args.length ||
+		     !args[i+1].matches( "0*[1-9][0-9]{0,8}x0*[1-9][0-9]{0,8}" ) ) {
+		    System.out.println( "-res needs WIDTHxHEIGHT, both more than 0" );
+		    usage();
+		}
+		String[] res = args[++i].split("x");
+		xres = Integer.parseInt( res[0] );
+		yres = Integer.parseInt( res[1] );
+	    }
+	    else if ( args[i].equals("-raster") && i + 1 < args.length ) {
+		if ( args[++i].equals("scanline") )
+		    rasterMode = Frame.RASTER_SCANLINE;
+		else
+		    rasterMode = Frame.RASTER_HALFSPACE;
+	    }
+	    else if ( args[i].equals("-indexed") )
+		indexed = true;
+	    else if ( args[i].equals("-tolerance") && i + 1 < args.length )
+		tolerance = Double.parseDouble( args[++i] );
+	    else if ( args[i].equals("-meshcache") && i + 1 < args.length )
+		MeshCache.getShared().setBudget( Long.parseLong( args[++i] ) << 20 );
+	    else if ( args[i].equals("-transformthreshold") && i + 1 < args.length )
+		EdgeMatrix.setParallelThreshold( Integer.parseInt( args[++i] ) );
+	    else if ( args[i].equals("-threads") && i + 1 < args.length )
+		threads = Integer.parseInt( args[++i] );
+	    else
+		file = args[i];
+	}
 	try {
 	    parser = new MdlParser(new FileReader( file ));
 	}
@@ -29,7 +74,11 @@ public class mdl
 	a = parser.getOps();
 	s = parser.getSymTab();
 
-	MDLReader mr = new MDLReader( a, s);
+	MDLReader mr = new MDLReader( a, s, xres, yres );
+	mr.setRasterMode( rasterMode );
+	mr.setIndexedOutput( indexed );
+	mr.setTolerance( tolerance );
+	mr.setThreads( threads );
 	mr.process();
 	/*
 	System.out.println("Opcodes:");